@@ -0,0 +1,18 @@
+class ACTNode implements RobotProgramNode {
+	final RobotProgramNode child;
+
+	ACTNode(RobotProgramNode child) {
+		this.child = child;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		child.execute(robot);
+	}
+
+	@Override
+	public String toString() {
+		return child.toString();
+	}
+
+}
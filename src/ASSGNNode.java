@@ -0,0 +1,19 @@
+class ASSGNNode implements RobotProgramNode {
+	final VARNode var;
+	final EXPNode expr;
+
+	ASSGNNode(VARNode var, EXPNode expr) {
+		this.var = var;
+		this.expr = expr;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		robot.setVariable(var.slot, expr.evaluate(robot));
+	}
+
+	@Override
+	public String toString() {
+		return var.toString() + " = " + expr.toString() + "; ";
+	}
+}
@@ -0,0 +1,28 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class BLOCKNode implements RobotProgramNode {
+	final List<RobotProgramNode> children;
+
+	BLOCKNode(List<RobotProgramNode> children) {
+		this.children = Collections.unmodifiableList(new ArrayList<RobotProgramNode>(children));
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		for (RobotProgramNode r : children) {
+			r.execute(robot);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String s = "";
+		for (RobotProgramNode r : children) {
+			s += r.toString();
+		}
+		return s;
+	}
+
+}
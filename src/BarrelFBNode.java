@@ -0,0 +1,27 @@
+class BarrelFBNode implements SensorNode {
+	final EXPNode index;
+
+	BarrelFBNode() {
+		index = null;
+	}
+
+	BarrelFBNode(EXPNode index) {
+		this.index = index;
+	}
+
+	@Override
+	public int evaluate(Robot robot) {
+		if (index == null) {
+			return robot.getClosestBarrelFB();
+		}
+		return robot.getBarrelFB(index.evaluate(robot));
+	}
+
+	@Override
+	public String toString() {
+		if (index == null) {
+			return "barrelFB";
+		}
+		return "barrelFB(" + index.toString() + ")";
+	}
+}
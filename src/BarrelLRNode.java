@@ -0,0 +1,27 @@
+class BarrelLRNode implements SensorNode {
+	final EXPNode index;
+
+	BarrelLRNode() {
+		index = null;
+	}
+
+	BarrelLRNode(EXPNode index) {
+		this.index = index;
+	}
+
+	@Override
+	public int evaluate(Robot robot) {
+		if (index == null) {
+			return robot.getClosestBarrelLR();
+		}
+		return robot.getBarrelLR(index.evaluate(robot));
+	}
+
+	@Override
+	public String toString() {
+		if (index == null) {
+			return "barrelLR";
+		}
+		return "barrelLR(" + index.toString() + ")";
+	}
+}
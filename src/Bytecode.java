@@ -0,0 +1,585 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A program compiled from the node tree to a flat int[] of instructions, run
+ * by a loop over a switch instead of by calls down the tree. Conditions are
+ * compiled to compare-and-jump instructions, and if, while and loop to jumps
+ * to absolute positions in the code, with the jumps back to the top of a
+ * loop calling Robot.loop as the tree does. Expressions run on an int stack.
+ *
+ * The robot sees exactly the calls the tree would make, in the same order,
+ * so a compiled program can be given to Robot.setProgram in place of the
+ * tree. Run as
+ *
+ * <pre>
+ * java Bytecode [-actions n] [file...]
+ * </pre>
+ *
+ * to check, for each program (by default those in data/), that the robot
+ * ends up with the same history running the tree and the bytecode, and to
+ * time both.
+ */
+class Bytecode implements RobotProgramNode {
+
+	// instructions, followed by their operands if any
+	static final int HALT = 0, PUSH = 1, LOAD = 2, STORE = 3, ADD = 4, SUB = 5, MUL = 6, DIV = 7,
+			FUEL_LEFT = 8, OPP_LR = 9, OPP_FB = 10, NUM_BARRELS = 11, BARREL_LR = 12, BARREL_FB = 13,
+			BARREL_LR_N = 14, BARREL_FB_N = 15, WALL_DIST = 16, JUMP = 17, IF_LT = 18, IF_GE = 19, IF_GT = 20,
+			IF_LE = 21, IF_EQ = 22, IF_NE = 23, MOVE = 24, TURN_L = 25, TURN_R = 26, TURN_AROUND = 27,
+			SHIELD_ON = 28, SHIELD_OFF = 29, TAKE_FUEL = 30, WAIT = 31, MOVE_N = 32, WAIT_N = 33, LOOP = 34;
+
+	private static final String[] NAMES = { "halt", "push", "load", "store", "add", "sub", "mul", "div", "fuelLeft",
+			"oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB", "barrelLR(n)", "barrelFB(n)", "wallDist", "jump",
+			"iflt", "ifge", "ifgt", "ifle", "ifeq", "ifne", "move", "turnL", "turnR", "turnAround", "shieldOn",
+			"shieldOff", "takeFuel", "wait", "move(n)", "wait(n)", "loop" };
+
+	/** LOAD and STORE refer to variables by their VARNode slot */
+	final int[] code;
+	/** The most values on the stack at once */
+	final int maxStack;
+	/** The slots LOAD and STORE refer to */
+	final Variables variables;
+	private final RobotProgramNode source;
+
+	private Bytecode(int[] code, int maxStack, RobotProgramNode source) {
+		this.code = code;
+		this.maxStack = maxStack;
+		this.variables = Variables.of(source);
+		this.source = source;
+	}
+
+	/**
+	 * Compiles a parsed program.
+	 */
+	static Bytecode compile(RobotProgramNode program) {
+		Compiler c = new Compiler();
+		c.statement(program);
+		c.emit(HALT);
+		return new Bytecode(Arrays.copyOf(c.code, c.pc), c.maxDepth, program);
+	}
+
+	/**
+	 * Where a run of the program has got to: the position in the code, the
+	 * expression stack and the moves or waits still to do of a move(n) or
+	 * wait(n). Everything the run needs to carry on is here, so it can stop
+	 * after any action and be carried on later, by another call on another
+	 * thread if need be.
+	 */
+	static final class State {
+		private int pc, sp;
+		private final int[] stack;
+		private int repeat, repeatOp;
+
+		State(Bytecode program) {
+			stack = new int[program.maxStack];
+		}
+	}
+
+	/**
+	 * Runs the whole program, on a robot with a thread of its own. A stepped
+	 * robot stops at every action, and is run by Stepper a resume at a time.
+	 */
+	@Override
+	public void execute(Robot robot) {
+		if (robot.isStepped()) {
+			throw new IllegalStateException("stepped robots are run by a Stepper");
+		}
+		resume(new State(this), robot);
+	}
+
+	/**
+	 * Carries on the run from where it got to, until the program ends or the
+	 * robot, if it is stepped, starts an action. Returns whether the program
+	 * has ended. A robot that isn't stepped never stops mid action, so its
+	 * whole run is one call.
+	 */
+	boolean resume(State state, Robot robot) {
+		robot.finishAction();
+		if (robot.isActing() || repeat(state, robot)) {
+			return false;
+		}
+		final int[] code = this.code;
+		final int[] stack = state.stack;
+		int sp = state.sp;
+		int pc = state.pc;
+		while (true) {
+			switch (code[pc++]) {
+			case HALT:
+				return true;
+			case PUSH:
+				stack[sp++] = code[pc++];
+				break;
+			case LOAD:
+				stack[sp++] = robot.getVariable(code[pc++]);
+				break;
+			case STORE:
+				robot.setVariable(code[pc++], stack[--sp]);
+				break;
+			case ADD:
+				sp--;
+				stack[sp - 1] += stack[sp];
+				break;
+			case SUB:
+				sp--;
+				stack[sp - 1] -= stack[sp];
+				break;
+			case MUL:
+				sp--;
+				stack[sp - 1] *= stack[sp];
+				break;
+			case DIV:
+				sp--;
+				stack[sp - 1] /= stack[sp];
+				break;
+			case FUEL_LEFT:
+				stack[sp++] = robot.getFuel();
+				break;
+			case OPP_LR:
+				stack[sp++] = robot.getOpponentLR();
+				break;
+			case OPP_FB:
+				stack[sp++] = robot.getOpponentFB();
+				break;
+			case NUM_BARRELS:
+				stack[sp++] = robot.numBarrels();
+				break;
+			case BARREL_LR:
+				stack[sp++] = robot.getClosestBarrelLR();
+				break;
+			case BARREL_FB:
+				stack[sp++] = robot.getClosestBarrelFB();
+				break;
+			case BARREL_LR_N:
+				stack[sp - 1] = robot.getBarrelLR(stack[sp - 1]);
+				break;
+			case BARREL_FB_N:
+				stack[sp - 1] = robot.getBarrelFB(stack[sp - 1]);
+				break;
+			case WALL_DIST:
+				stack[sp++] = robot.getDistanceToWall();
+				break;
+			case JUMP:
+				pc = code[pc];
+				break;
+			case LOOP:
+				robot.loop();
+				pc = code[pc];
+				if (robot.isActing()) {
+					// made to wait for spinning
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case IF_LT:
+				sp -= 2;
+				pc = (stack[sp] < stack[sp + 1]) ? code[pc] : pc + 1;
+				break;
+			case IF_GE:
+				sp -= 2;
+				pc = (stack[sp] >= stack[sp + 1]) ? code[pc] : pc + 1;
+				break;
+			case IF_GT:
+				sp -= 2;
+				pc = (stack[sp] > stack[sp + 1]) ? code[pc] : pc + 1;
+				break;
+			case IF_LE:
+				sp -= 2;
+				pc = (stack[sp] <= stack[sp + 1]) ? code[pc] : pc + 1;
+				break;
+			case IF_EQ:
+				sp -= 2;
+				pc = (stack[sp] == stack[sp + 1]) ? code[pc] : pc + 1;
+				break;
+			case IF_NE:
+				sp -= 2;
+				pc = (stack[sp] != stack[sp + 1]) ? code[pc] : pc + 1;
+				break;
+			case MOVE:
+				robot.move();
+				if (robot.isActing()) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case TURN_L:
+				robot.turnLeft();
+				if (robot.isActing()) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case TURN_R:
+				robot.turnRight();
+				if (robot.isActing()) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case TURN_AROUND:
+				robot.turnAround();
+				if (robot.isActing()) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case SHIELD_ON:
+				robot.setShield(true);
+				break;
+			case SHIELD_OFF:
+				robot.setShield(false);
+				break;
+			case TAKE_FUEL:
+				robot.takeFuel();
+				if (robot.isActing()) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case WAIT:
+				robot.idleWait();
+				if (robot.isActing()) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			case MOVE_N:
+			case WAIT_N:
+				state.repeatOp = code[pc - 1];
+				state.repeat = stack[--sp];
+				if (repeat(state, robot)) {
+					state.pc = pc;
+					state.sp = sp;
+					return false;
+				}
+				break;
+			default:
+				throw new IllegalStateException("bad instruction " + code[pc - 1] + " at " + (pc - 1));
+			}
+		}
+	}
+
+	/**
+	 * Does the moves or waits left of a move(n) or wait(n), returning whether
+	 * it stopped after starting one.
+	 */
+	private static boolean repeat(State state, Robot robot) {
+		while (state.repeat > 0) {
+			state.repeat--;
+			if (state.repeatOp == MOVE_N) {
+				robot.move();
+			} else {
+				robot.idleWait();
+			}
+			if (robot.isActing()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Prints as the program it was compiled from */
+	@Override
+	public String toString() {
+		return source.toString();
+	}
+
+	/**
+	 * The instructions one per line, with their positions.
+	 */
+	String disassemble() {
+		StringBuilder sb = new StringBuilder();
+		for (int pc = 0; pc < code.length;) {
+			int op = code[pc];
+			sb.append(pc).append('\t').append(NAMES[op]);
+			pc++;
+			if (op == PUSH || op == JUMP || op == LOOP || (op >= IF_LT && op <= IF_NE)) {
+				sb.append(' ').append(code[pc++]);
+			} else if (op == LOAD || op == STORE) {
+				sb.append(' ').append(variables.name(code[pc++]));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/** Turns a tree into instructions, keeping track of the stack depth */
+	private static class Compiler {
+		int[] code = new int[64];
+		int pc;
+		int depth, maxDepth;
+
+		void emit(int op) {
+			if (pc == code.length) {
+				code = Arrays.copyOf(code, code.length * 2);
+			}
+			code[pc++] = op;
+		}
+
+		void emit(int op, int operand) {
+			emit(op);
+			emit(operand);
+		}
+
+		/** Emits a jump whose target is filled in later, returning where */
+		int hole(int op) {
+			emit(op, -1);
+			return pc - 1;
+		}
+
+		void patch(List<Integer> holes, int target) {
+			for (int hole : holes) {
+				code[hole] = target;
+			}
+		}
+
+		void push(int n) {
+			depth += n;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+
+		void statement(RobotProgramNode node) {
+			if (node instanceof PROGNode) {
+				for (RobotProgramNode child : ((PROGNode) node).children) {
+					statement(child);
+				}
+			} else if (node instanceof BLOCKNode) {
+				for (RobotProgramNode child : ((BLOCKNode) node).children) {
+					statement(child);
+				}
+			} else if (node instanceof STMTNode) {
+				statement(((STMTNode) node).child);
+			} else if (node instanceof ACTNode) {
+				statement(((ACTNode) node).child);
+			} else if (node instanceof LOOPNode) {
+				int top = pc;
+				statement(((LOOPNode) node).block);
+				emit(LOOP, top);
+			} else if (node instanceof WHILENode) {
+				WHILENode n = (WHILENode) node;
+				int top = pc;
+				List<Integer> exit = branch(n.Condition, false);
+				statement(n.Block);
+				emit(LOOP, top);
+				patch(exit, pc);
+			} else if (node instanceof IFNode) {
+				ifStatement((IFNode) node);
+			} else if (node instanceof ASSGNNode) {
+				ASSGNNode n = (ASSGNNode) node;
+				expression(n.expr);
+				emit(STORE, n.var.slot);
+				push(-1);
+			} else if (node instanceof MoveNode) {
+				repeated(((MoveNode) node).expr, MOVE, MOVE_N);
+			} else if (node instanceof WaitNode) {
+				repeated(((WaitNode) node).expr, WAIT, WAIT_N);
+			} else if (node instanceof TurnLNode) {
+				emit(TURN_L);
+			} else if (node instanceof TurnRNode) {
+				emit(TURN_R);
+			} else if (node instanceof TurnAroundNode) {
+				emit(TURN_AROUND);
+			} else if (node instanceof ShieldOnNode) {
+				emit(SHIELD_ON);
+			} else if (node instanceof ShieldOffNode) {
+				emit(SHIELD_OFF);
+			} else if (node instanceof TakeFuelNode) {
+				emit(TAKE_FUEL);
+			} else if (node instanceof ELSENode) {
+				statement(((ELSENode) node).Block);
+			} else {
+				throw new IllegalArgumentException("can't compile " + node.getClass().getName());
+			}
+		}
+
+		private void repeated(EXPNode count, int once, int times) {
+			if (count == null) {
+				emit(once);
+			} else {
+				expression(count);
+				emit(times);
+				push(-1);
+			}
+		}
+
+		private void ifStatement(IFNode n) {
+			List<Integer> end = new ArrayList<Integer>();
+			List<Integer> next = branch(n.Condition, false);
+			statement(n.Block);
+			for (ELIFNode elif : n.Elifs) {
+				end.add(hole(JUMP));
+				patch(next, pc);
+				next = branch(elif.Condition, false);
+				statement(elif.Block);
+			}
+			if (n.Else != null) {
+				end.add(hole(JUMP));
+				patch(next, pc);
+				statement(n.Else);
+			} else {
+				end.addAll(next);
+			}
+			patch(end, pc);
+		}
+
+		/**
+		 * Emits code that jumps, to the positions returned, if the condition
+		 * is the same as when, and otherwise carries on after it. And and or
+		 * only evaluate their second condition when the first doesn't decide.
+		 */
+		List<Integer> branch(ConditionNode node, boolean when) {
+			CONDNode c = (CONDNode) node;
+			List<Integer> holes = new ArrayList<Integer>();
+			if (c.cond == null) {
+				if (c.Relop.operation instanceof LTNode) {
+					compare(c, when ? IF_LT : IF_GE, holes);
+				} else if (c.Relop.operation instanceof GTNode) {
+					compare(c, when ? IF_GT : IF_LE, holes);
+				} else if (c.Relop.operation instanceof EQNode) {
+					compare(c, when ? IF_EQ : IF_NE, holes);
+				} else if (!when) {
+					// an unknown relation is always false
+					holes.add(hole(JUMP));
+				}
+			} else if (c.cond.equals("and") || c.cond.equals("or")) {
+				boolean and = c.cond.equals("and");
+				if (when != and) {
+					// and is false (or true) if either half is
+					holes.addAll(branch(c.condParam1, when));
+					holes.addAll(branch(c.condParam2, when));
+				} else {
+					List<Integer> decided = branch(c.condParam1, !when);
+					holes.addAll(branch(c.condParam2, when));
+					patch(decided, pc);
+				}
+			} else {
+				holes.addAll(branch(c.condParam1, !when));
+			}
+			return holes;
+		}
+
+		private void compare(CONDNode c, int op, List<Integer> holes) {
+			expression(c.expr1);
+			expression(c.expr2);
+			holes.add(hole(op));
+			push(-2);
+		}
+
+		void expression(SensorNode node) {
+			if (node instanceof EXPNode) {
+				EXPNode n = (EXPNode) node;
+				if (n.operation == null) {
+					expression(n.expr1);
+					return;
+				}
+				int op;
+				switch (n.operation.operation) {
+				case "add":
+					op = ADD;
+					break;
+				case "sub":
+					op = SUB;
+					break;
+				case "mul":
+					op = MUL;
+					break;
+				case "div":
+					op = DIV;
+					break;
+				default:
+					// what EXPNode gives for an unknown operation
+					emit(PUSH, -1);
+					push(1);
+					return;
+				}
+				expression(n.expr1);
+				expression(n.expr2);
+				emit(op);
+				push(-1);
+			} else if (node instanceof SENNode) {
+				expression(((SENNode) node).sensor);
+			} else if (node instanceof NUMNode) {
+				emit(PUSH, ((NUMNode) node).value);
+				push(1);
+			} else if (node instanceof VARNode) {
+				emit(LOAD, ((VARNode) node).slot);
+				push(1);
+			} else if (node instanceof FuelLeftNode) {
+				sensor(FUEL_LEFT);
+			} else if (node instanceof OppLRNode) {
+				sensor(OPP_LR);
+			} else if (node instanceof OppFBNode) {
+				sensor(OPP_FB);
+			} else if (node instanceof NumBarrelsNode) {
+				sensor(NUM_BARRELS);
+			} else if (node instanceof WallDistNode) {
+				sensor(WALL_DIST);
+			} else if (node instanceof BarrelLRNode) {
+				EXPNode index = ((BarrelLRNode) node).index;
+				if (index == null) {
+					sensor(BARREL_LR);
+				} else {
+					expression(index);
+					emit(BARREL_LR_N);
+				}
+			} else if (node instanceof BarrelFBNode) {
+				EXPNode index = ((BarrelFBNode) node).index;
+				if (index == null) {
+					sensor(BARREL_FB);
+				} else {
+					expression(index);
+					emit(BARREL_FB_N);
+				}
+			} else {
+				throw new IllegalArgumentException("can't compile " + node.getClass().getName());
+			}
+		}
+
+		private void sensor(int op) {
+			emit(op);
+			push(1);
+		}
+	}
+
+	public static void main(String[] args) {
+		int actions = 2000;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-actions") && i + 1 < args.length) {
+				actions = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		RoboGame.debugDisplay = false;
+		boolean same = Harness.check(Harness.programs(files), actions, new Harness.Variant("bytecode") {
+			@Override
+			RobotProgramNode make(RobotProgramNode tree) {
+				return compile(tree);
+			}
+
+			@Override
+			String report(RobotProgramNode tree, RobotProgramNode program, List<String> history, int actions) {
+				// warm both up before timing them
+				Harness.time(tree, actions, Harness.RUNS);
+				Harness.time(program, actions, Harness.RUNS);
+				long treeNanos = Harness.time(tree, actions, Harness.RUNS);
+				long bytecodeNanos = Harness.time(program, actions, Harness.RUNS);
+				long steps = Math.max(1, history.size()) * (long) Harness.RUNS;
+				return String.format("  tree %6.0f ns/state  bytecode %6.0f ns/state  %d ints",
+						(double) treeNanos / steps, (double) bytecodeNanos / steps, ((Bytecode) program).code.length);
+			}
+		});
+		System.out.println(same ? "Bytecode and tree agree" : "Bytecode and tree DIFFER");
+	}
+}
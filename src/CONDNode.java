@@ -0,0 +1,66 @@
+class CONDNode implements ConditionNode {
+	final RELOPNode Relop;
+	final EXPNode expr1;
+	final EXPNode expr2;
+	final String cond;
+	final ConditionNode condParam1;
+	final ConditionNode condParam2;
+	
+
+	CONDNode(ConditionNode rel, EXPNode e1, EXPNode e2) {
+		this.Relop = (RELOPNode) rel;
+		this.expr1 = e1;
+		this.expr2 = e2;
+		this.cond = null;
+		this.condParam1 = null;
+		this.condParam2 = null;
+	}
+	
+	CONDNode(String rel, ConditionNode e1, ConditionNode e2) {
+		this.Relop = null;
+		this.expr1 = null;
+		this.expr2 = null;
+		this.cond = rel;
+		this.condParam1 = e1;
+		this.condParam2 = e2;
+	}
+
+	@Override
+	public boolean evaluate(Robot robot) {
+		if (cond != null) {
+			if (cond.equals("and")) {
+				return condParam1.evaluate(robot) && condParam2.evaluate(robot);
+			} else if (cond.equals("or")) {
+				return condParam1.evaluate(robot) || condParam2.evaluate(robot);
+			} else {
+				return !condParam1.evaluate(robot);
+			}
+		}
+		if (Relop.operation instanceof EQNode) {
+			if (expr1.evaluate(robot) == expr2.evaluate(robot)) {
+				return true;
+			}
+		} else if (Relop.operation instanceof GTNode) {
+			if (expr1.evaluate(robot) > expr2.evaluate(robot)) {
+				return true;
+			}
+		} else if (Relop.operation instanceof LTNode) {
+			if (expr1.evaluate(robot) < expr2.evaluate(robot)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		if (cond != null) {
+			if (condParam2 == null) {
+				return cond + "(" + condParam1.toString() + ")";
+			}
+			return cond + "(" + condParam1.toString() + ", " + condParam2.toString() + ")";
+		}
+		return Relop.toString() + "(" + expr1.toString() + ", " + expr2.toString() + ")";
+	}
+
+}
@@ -0,0 +1,528 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles programs to JVM classes, so the JIT can inline and optimise them
+ * like any other code. The program is first compiled to Bytecode, whose
+ * instructions map nearly one to one onto JVM instructions: sensors and
+ * actions become direct calls on the Robot, conditions become the JVM's own
+ * compare and branch instructions, and the operand stack is the JVM's.
+ *
+ * Each program is defined as a hidden class implementing RobotProgramNode.
+ * Hidden classes are unloaded once nothing refers to them, so a class goes
+ * away with the last match that used it, once World.PROGRAMS has evicted
+ * the program too.
+ *
+ * The whole program is one execute method, which HotSpot only JIT compiles
+ * if it is at most 8000 bytes of JVM code (HugeMethodLimit); a bigger one
+ * would only ever be interpreted, slower than the Specializer's tree. So a
+ * program whose code would be bigger is specialized instead. Run as
+ *
+ * <pre>
+ * java ClassCompiler [-actions n] [file...]
+ * </pre>
+ *
+ * to check the compiled classes against the tree, as Bytecode does, and to
+ * time the tree, the bytecode and the class.
+ */
+class ClassCompiler {
+
+	/** The most JVM code a method HotSpot will JIT compile can have */
+	private static final int MAX_CODE = 8000;
+
+	/** A program compiled to a class, printing as its source */
+	static class CompiledProgram implements RobotProgramNode {
+		final RobotProgramNode compiled;
+		final Variables variables;
+		private final RobotProgramNode source;
+
+		CompiledProgram(RobotProgramNode compiled, RobotProgramNode source) {
+			this.compiled = compiled;
+			this.variables = Variables.of(source);
+			this.source = source;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			compiled.execute(robot);
+		}
+
+		@Override
+		public String toString() {
+			return source.toString();
+		}
+	}
+
+	/**
+	 * Compiles a parsed program to a new hidden class, or specializes it if
+	 * its code would be over MAX_CODE.
+	 */
+	static RobotProgramNode compile(RobotProgramNode program) {
+		byte[] bytes = classFile(Bytecode.compile(program));
+		if (bytes == null) {
+			return Specializer.specialize(program);
+		}
+		try {
+			// not strongly held, so it can be unloaded with the program
+			Class<?> c = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+			return new CompiledProgram((RobotProgramNode) c.getDeclaredConstructor().newInstance(), program);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("can't load compiled program", e);
+		}
+	}
+
+	// JVM instructions
+	private static final int ICONST_0 = 0x03, BIPUSH = 0x10, LDC_W = 0x13, ILOAD_2 = 0x1c,
+			ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ISTORE_2 = 0x3d, SWAP = 0x5f, IADD = 0x60, ISUB = 0x64, IMUL = 0x68,
+			IDIV = 0x6c, IINC = 0x84, IFLE = 0x9e, IF_ICMPEQ = 0x9f, IF_ICMPNE = 0xa0, IF_ICMPLT = 0xa1,
+			IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3, IF_ICMPLE = 0xa4, GOTO = 0xa7, RETURN = 0xb1, INVOKEVIRTUAL = 0xb6,
+			INVOKESPECIAL = 0xb7;
+
+	/**
+	 * Writes the class file, or returns null if the program's code would be
+	 * over MAX_CODE. The class is version 49, which needs no stack map frames.
+	 */
+	static byte[] classFile(Bytecode program) {
+		ConstantPool pool = new ConstantPool();
+		byte[] code = code(program, pool);
+		if (code == null) {
+			return null;
+		}
+		int name = pool.className("CompiledRobotProgram");
+		int object = pool.className("java/lang/Object");
+		int node = pool.className("RobotProgramNode");
+		int init = pool.utf8("<init>");
+		int noArgs = pool.utf8("()V");
+		int objectInit = pool.method("java/lang/Object", "<init>", "()V");
+		int execute = pool.utf8("execute");
+		int executeType = pool.utf8("(LRobot;)V");
+		int codeAttribute = pool.utf8("Code");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(code.length + 1024);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(49);
+			pool.write(out);
+			out.writeShort(0x0030); // final super
+			out.writeShort(name);
+			out.writeShort(object);
+			out.writeShort(1);
+			out.writeShort(node);
+			out.writeShort(0); // no fields
+			out.writeShort(2);
+
+			out.writeShort(0x0001); // public
+			out.writeShort(init);
+			out.writeShort(noArgs);
+			out.writeShort(1);
+			byte[] constructor = { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit,
+					(byte) RETURN };
+			writeCode(out, codeAttribute, 1, 1, constructor);
+
+			out.writeShort(0x0001);
+			out.writeShort(execute);
+			out.writeShort(executeType);
+			out.writeShort(1);
+			// the robot and the slot a call needs beneath a value
+			writeCode(out, codeAttribute, program.maxStack + 3, 3, code);
+
+			out.writeShort(0); // no class attributes
+		} catch (IOException e) {
+			// writing to a byte array never fails
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void writeCode(DataOutputStream out, int attribute, int maxStack, int maxLocals, byte[] code)
+			throws IOException {
+		out.writeShort(attribute);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // no exception handlers
+		out.writeShort(0); // no attributes
+	}
+
+	/**
+	 * Translates the instructions of execute(Robot). Local 1 is the robot and
+	 * local 2 holds a value while the robot is put beneath it. Every
+	 * instruction is translated on its own, so the first pass only works out
+	 * where each one starts, for the jumps.
+	 */
+	private static byte[] code(Bytecode program, ConstantPool pool) {
+		int[] code = program.code;
+		int[] at = new int[code.length + 1];
+		int length = 0;
+		for (int pc = 0; pc < code.length; pc += width(code[pc])) {
+			at[pc] = length;
+			length += size(code, pc);
+		}
+		if (length > MAX_CODE) {
+			return null;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+		for (int pc = 0; pc < code.length; pc += width(code[pc])) {
+			int op = code[pc];
+			switch (op) {
+			case Bytecode.HALT:
+				out.write(RETURN);
+				break;
+			case Bytecode.PUSH:
+				push(out, code[pc + 1], pool);
+				break;
+			case Bytecode.LOAD:
+				out.write(ALOAD_1);
+				u2(out, LDC_W, pool.integer(code[pc + 1]));
+				call(out, pool, "getVariable", "(I)I");
+				break;
+			case Bytecode.STORE:
+				out.write(ISTORE_2);
+				out.write(ALOAD_1);
+				u2(out, LDC_W, pool.integer(code[pc + 1]));
+				out.write(ILOAD_2);
+				call(out, pool, "setVariable", "(II)V");
+				break;
+			case Bytecode.ADD:
+				out.write(IADD);
+				break;
+			case Bytecode.SUB:
+				out.write(ISUB);
+				break;
+			case Bytecode.MUL:
+				out.write(IMUL);
+				break;
+			case Bytecode.DIV:
+				out.write(IDIV);
+				break;
+			case Bytecode.FUEL_LEFT:
+				sensor(out, pool, "getFuel");
+				break;
+			case Bytecode.OPP_LR:
+				sensor(out, pool, "getOpponentLR");
+				break;
+			case Bytecode.OPP_FB:
+				sensor(out, pool, "getOpponentFB");
+				break;
+			case Bytecode.NUM_BARRELS:
+				sensor(out, pool, "numBarrels");
+				break;
+			case Bytecode.BARREL_LR:
+				sensor(out, pool, "getClosestBarrelLR");
+				break;
+			case Bytecode.BARREL_FB:
+				sensor(out, pool, "getClosestBarrelFB");
+				break;
+			case Bytecode.WALL_DIST:
+				sensor(out, pool, "getDistanceToWall");
+				break;
+			case Bytecode.BARREL_LR_N:
+				out.write(ALOAD_1);
+				out.write(SWAP);
+				call(out, pool, "getBarrelLR", "(I)I");
+				break;
+			case Bytecode.BARREL_FB_N:
+				out.write(ALOAD_1);
+				out.write(SWAP);
+				call(out, pool, "getBarrelFB", "(I)I");
+				break;
+			case Bytecode.JUMP:
+				jump(out, GOTO, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.LOOP:
+				action(out, pool, "loop");
+				jump(out, GOTO, at[pc] + 4, at[code[pc + 1]]);
+				break;
+			case Bytecode.IF_LT:
+				jump(out, IF_ICMPLT, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.IF_GE:
+				jump(out, IF_ICMPGE, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.IF_GT:
+				jump(out, IF_ICMPGT, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.IF_LE:
+				jump(out, IF_ICMPLE, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.IF_EQ:
+				jump(out, IF_ICMPEQ, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.IF_NE:
+				jump(out, IF_ICMPNE, at[pc], at[code[pc + 1]]);
+				break;
+			case Bytecode.MOVE:
+				action(out, pool, "move");
+				break;
+			case Bytecode.TURN_L:
+				action(out, pool, "turnLeft");
+				break;
+			case Bytecode.TURN_R:
+				action(out, pool, "turnRight");
+				break;
+			case Bytecode.TURN_AROUND:
+				action(out, pool, "turnAround");
+				break;
+			case Bytecode.TAKE_FUEL:
+				action(out, pool, "takeFuel");
+				break;
+			case Bytecode.WAIT:
+				action(out, pool, "idleWait");
+				break;
+			case Bytecode.SHIELD_ON:
+			case Bytecode.SHIELD_OFF:
+				out.write(ALOAD_1);
+				out.write(op == Bytecode.SHIELD_ON ? ICONST_0 + 1 : ICONST_0);
+				call(out, pool, "setShield", "(Z)V");
+				break;
+			case Bytecode.MOVE_N:
+			case Bytecode.WAIT_N:
+				// for (int i = count; i > 0; i--)
+				int top = at[pc] + 1;
+				out.write(ISTORE_2);
+				out.write(ILOAD_2);
+				u2(out, IFLE, 13);
+				action(out, pool, op == Bytecode.MOVE_N ? "move" : "idleWait");
+				out.write(IINC);
+				out.write(2);
+				out.write(-1);
+				jump(out, GOTO, at[pc] + 12, top);
+				break;
+			default:
+				throw new IllegalStateException("bad instruction " + op + " at " + pc);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/** How many ints an instruction takes in Bytecode */
+	private static int width(int op) {
+		switch (op) {
+		case Bytecode.PUSH:
+		case Bytecode.LOAD:
+		case Bytecode.STORE:
+		case Bytecode.JUMP:
+		case Bytecode.LOOP:
+		case Bytecode.IF_LT:
+		case Bytecode.IF_GE:
+		case Bytecode.IF_GT:
+		case Bytecode.IF_LE:
+		case Bytecode.IF_EQ:
+		case Bytecode.IF_NE:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	/** How many bytes an instruction is translated to */
+	private static int size(int[] code, int pc) {
+		switch (code[pc]) {
+		case Bytecode.HALT:
+		case Bytecode.ADD:
+		case Bytecode.SUB:
+		case Bytecode.MUL:
+		case Bytecode.DIV:
+			return 1;
+		case Bytecode.PUSH:
+			int n = code[pc + 1];
+			return (n >= -1 && n <= 5) ? 1 : (n == (byte) n) ? 2 : 3;
+		case Bytecode.LOAD:
+			return 7;
+		case Bytecode.STORE:
+			return 9;
+		case Bytecode.BARREL_LR_N:
+		case Bytecode.BARREL_FB_N:
+		case Bytecode.SHIELD_ON:
+		case Bytecode.SHIELD_OFF:
+			return 5;
+		case Bytecode.MOVE_N:
+		case Bytecode.WAIT_N:
+			return 15;
+		case Bytecode.LOOP:
+			return 7;
+		case Bytecode.JUMP:
+		case Bytecode.IF_LT:
+		case Bytecode.IF_GE:
+		case Bytecode.IF_GT:
+		case Bytecode.IF_LE:
+		case Bytecode.IF_EQ:
+		case Bytecode.IF_NE:
+			return 3;
+		default:
+			// a call on the robot
+			return 4;
+		}
+	}
+
+	private static void push(ByteArrayOutputStream out, int n, ConstantPool pool) {
+		if (n >= -1 && n <= 5) {
+			out.write(ICONST_0 + n);
+		} else if (n == (byte) n) {
+			out.write(BIPUSH);
+			out.write(n);
+		} else {
+			// an ldc_w is as long as a sipush, so every other number is a constant
+			u2(out, LDC_W, pool.integer(n));
+		}
+	}
+
+	private static void sensor(ByteArrayOutputStream out, ConstantPool pool, String name) {
+		out.write(ALOAD_1);
+		call(out, pool, name, "()I");
+	}
+
+	private static void action(ByteArrayOutputStream out, ConstantPool pool, String name) {
+		out.write(ALOAD_1);
+		call(out, pool, name, "()V");
+	}
+
+	/** Calls a method on the robot beneath the arguments */
+	private static void call(ByteArrayOutputStream out, ConstantPool pool, String name, String type) {
+		u2(out, INVOKEVIRTUAL, pool.method("Robot", name, type));
+	}
+
+	private static void jump(ByteArrayOutputStream out, int op, int from, int to) {
+		u2(out, op, to - from);
+	}
+
+	private static void u2(ByteArrayOutputStream out, int op, int operand) {
+		out.write(op);
+		out.write(operand >> 8);
+		out.write(operand);
+	}
+
+	/** The constants of a class file, each added once */
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private int count = 1;
+
+		private int add(String key, int tag, int a, int b) {
+			Integer index = entries.get(key);
+			if (index == null) {
+				index = count++;
+				entries.put(key, index);
+				try {
+					out.writeByte(tag);
+					out.writeShort(a);
+					if (b >= 0) {
+						out.writeShort(b);
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return index;
+		}
+
+		int utf8(String s) {
+			Integer index = entries.get("U" + s);
+			if (index == null) {
+				index = count++;
+				entries.put("U" + s, index);
+				try {
+					out.writeByte(1);
+					out.writeUTF(s);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return index;
+		}
+
+		int integer(int n) {
+			Integer index = entries.get("I" + n);
+			if (index == null) {
+				index = count++;
+				entries.put("I" + n, index);
+				try {
+					out.writeByte(3);
+					out.writeInt(n);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return index;
+		}
+
+		int className(String name) {
+			return add("C" + name, 7, utf8(name), -1);
+		}
+
+		int method(String owner, String name, String type) {
+			int c = className(owner);
+			int nameAndType = add("N" + name + type, 12, utf8(name), utf8(type));
+			return add("M" + owner + "." + name + type, 10, c, nameAndType);
+		}
+
+		void write(DataOutputStream to) throws IOException {
+			out.flush();
+			to.writeShort(count);
+			bytes.writeTo(to);
+		}
+	}
+
+	public static void main(String[] args) {
+		int actions = 2000;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-actions") && i + 1 < args.length) {
+				actions = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		RoboGame.debugDisplay = false;
+		ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+		final int[] compiled = new int[1];
+		boolean same = Harness.check(Harness.programs(files), actions, new Harness.Variant("class") {
+			@Override
+			RobotProgramNode make(RobotProgramNode tree) {
+				RobotProgramNode program = compile(tree);
+				if (program instanceof CompiledProgram) {
+					compiled[0]++;
+				}
+				return program;
+			}
+
+			@Override
+			String report(RobotProgramNode tree, RobotProgramNode jvm, List<String> history, int actions) {
+				RobotProgramNode bytecode = Bytecode.compile(tree);
+				Harness.time(tree, actions, Harness.RUNS);
+				Harness.time(bytecode, actions, Harness.RUNS);
+				Harness.time(jvm, actions, Harness.RUNS);
+				long treeNanos = Harness.time(tree, actions, Harness.RUNS);
+				long bytecodeNanos = Harness.time(bytecode, actions, Harness.RUNS);
+				long jvmNanos = Harness.time(jvm, actions, Harness.RUNS);
+				long steps = Math.max(1, history.size()) * (long) Harness.RUNS;
+				return String.format("  tree %6.0f  bytecode %6.0f  class %6.0f ns/state", (double) treeNanos / steps,
+						(double) bytecodeNanos / steps, (double) jvmNanos / steps);
+			}
+		});
+		System.out.println(same ? "Classes and tree agree" : "Classes and tree DIFFER");
+
+		// nothing refers to the compiled programs any more
+		long unloaded = classes.getUnloadedClassCount();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		System.out.println(compiled[0] + " classes compiled, " + (classes.getUnloadedClassCount() - unloaded)
+				+ " unloaded after the programs were dropped");
+	}
+}
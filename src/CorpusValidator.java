@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Batch mode of the parser, for checking a whole corpus of submitted programs.
+ * Run as
+ *
+ * <pre>
+ * java Parser -batch &lt;file | directory | glob&gt;...
+ * java Parser -batch -check
+ * </pre>
+ *
+ * Directories are searched recursively for .prog files. A glob such as
+ * "submissions/**&#47;*.prog" is matched against the paths under the last
+ * directory before its first wildcard. Files are read
+ * through memory mapped buffers and parsed on a fork-join pool with one
+ * worker per processor. One line is printed per file, in sorted path order
+ * whatever order the parses finish in:
+ *
+ * <pre>
+ * data/s0_full.prog ok nodes=28 time=41us
+ * data/s1_bad1.prog error 1:6 nodes=0 time=12us Missing '('
+ * </pre>
+ *
+ * With -check, it instead checks that both parsers report each error of
+ * POSITIONS at the token that caused it.
+ */
+class CorpusValidator {
+
+	/**
+	 * Programs with an error, each followed by the line:column of the token
+	 * the error should be reported at.
+	 */
+	static final String[] POSITIONS = {
+			"move;\nturnL;\nmove;\nturnRight;", "4:1",
+			"or(shieldOn, shieldOff);", "1:1",
+			"if(shieldOn){\n\tshieldOff;\n}", "1:4",
+			"move(eq(1, 1));", "1:6",
+			"while(gt(fuelLeft, zero)){\n\tmove;\n}", "1:20",
+			"turnL\nmove;", "2:1",
+			"loop{}", "1:6",
+			"while{ move; }", "1:6",
+			"loop{\n\tmove;\n\tturnL;", "3:8",
+			"  $x = add(1, 2, 3);", "1:16",
+	};
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: java Parser -batch <file | directory | glob>...");
+			return;
+		}
+		if (args[0].equals("-check")) {
+			System.out.println(checkPositions(System.out) ? "Errors are reported where they are"
+					: "Errors are reported in the WRONG place");
+			return;
+		}
+		List<Path> files = new ArrayList<Path>();
+		for (String arg : args) {
+			try {
+				collect(arg, files);
+			} catch (IOException e) {
+				System.out.println("Can't read '" + arg + "': " + e.getMessage());
+			}
+		}
+		Collections.sort(files);
+
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		try {
+			validate(files, pool, System.out);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Parses every file on the pool and prints one result line per file, in
+	 * the order of the list. Lines are printed as soon as all the files before
+	 * them are done.
+	 */
+	static void validate(List<Path> files, ForkJoinPool pool, PrintStream out) {
+		long start = System.nanoTime();
+		List<ForkJoinTask<Result>> tasks = new ArrayList<ForkJoinTask<Result>>(files.size());
+		for (final Path file : files) {
+			tasks.add(pool.submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					return check(file);
+				}
+			}));
+		}
+
+		int ok = 0;
+		for (ForkJoinTask<Result> task : tasks) {
+			Result r = task.join();
+			if (r.ok) {
+				ok++;
+			}
+			out.println(r);
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		out.println(files.size() + " files, " + ok + " ok, " + (files.size() - ok) + " errors in " + millis
+				+ "ms on " + pool.getParallelism() + " threads");
+	}
+
+	/**
+	 * Parses each program of POSITIONS with both parsers, printing where any
+	 * error is reported somewhere else, and returns whether none was.
+	 */
+	static boolean checkPositions(PrintStream out) {
+		boolean right = true;
+		for (int i = 0; i < POSITIONS.length; i += 2) {
+			String source = POSITIONS[i];
+			for (int iterative = 0; iterative < 2; iterative++) {
+				Lexer s = new Lexer(source.toCharArray());
+				String at;
+				try {
+					if (iterative == 0) {
+						Parser.parseProgram(s);
+					} else {
+						IterativeParser.parseProgram(s);
+					}
+					at = "no error";
+				} catch (ParserFailureException e) {
+					at = e.getLine() + ":" + e.getColumn();
+				}
+				if (!at.equals(POSITIONS[i + 1])) {
+					right = false;
+					out.println((iterative == 0 ? "Parser" : "IterativeParser") + " reports "
+							+ source.replace("\n", "\\n") + " at " + at + ", not " + POSITIONS[i + 1]);
+				}
+			}
+		}
+		return right;
+	}
+
+	/** The outcome of parsing one file */
+	static class Result {
+		final Path file;
+		final boolean ok;
+		final int line, column;
+		final int nodes;
+		final long nanos;
+		final String message;
+
+		Result(Path file, boolean ok, int line, int column, int nodes, long nanos, String message) {
+			this.file = file;
+			this.ok = ok;
+			this.line = line;
+			this.column = column;
+			this.nodes = nodes;
+			this.nanos = nanos;
+			this.message = message;
+		}
+
+		@Override
+		public String toString() {
+			String time = " nodes=" + nodes + " time=" + (nanos / 1000) + "us";
+			if (ok) {
+				return file + " ok" + time;
+			}
+			return file + " error " + line + ":" + column + time + " " + message;
+		}
+	}
+
+	static Result check(Path file) {
+		long start = System.nanoTime();
+		try {
+			// the iterative parser, so no submission can overflow the stack
+			RobotProgramNode prog = IterativeParser.parseProgram(open(file));
+			int nodes = ProgramTree.size(prog);
+			return new Result(file, true, 0, 0, nodes, System.nanoTime() - start, null);
+		} catch (ParserFailureException e) {
+			// only the first line, the rest is the tokens after the failure
+			String message = e.getMessage().split("\n", 2)[0];
+			return new Result(file, false, e.getLine(), e.getColumn(), 0, System.nanoTime() - start, message);
+		} catch (IOException e) {
+			return new Result(file, false, 0, 0, 0, System.nanoTime() - start, "unreadable: " + e);
+		}
+	}
+
+	/**
+	 * Maps the file into memory and decodes it straight into the char buffer
+	 * of a Lexer, in the platform charset as parseFile reads files.
+	 */
+	static Lexer open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				CharBuffer chars = Charset.defaultCharset().newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+				if (chars.hasArray() && chars.arrayOffset() == 0) {
+					return new Lexer(chars.array(), chars.limit());
+				}
+				char[] copy = new char[chars.remaining()];
+				chars.get(copy);
+				return new Lexer(copy);
+			} catch (CharacterCodingException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Adds the files named by arg, which may be a file, a directory or a glob.
+	 */
+	static void collect(String arg, final List<Path> files) throws IOException {
+		int wild = firstWildcard(arg);
+		if (wild < 0) {
+			Path path = Paths.get(arg);
+			if (Files.isDirectory(path)) {
+				walk(path, FileSystems.getDefault().getPathMatcher("glob:**.prog"), files);
+			} else if (Files.exists(path)) {
+				files.add(path);
+			} else {
+				System.out.println("Can't find file '" + arg + "'");
+			}
+			return;
+		}
+		// walk from the last directory before the first wildcard, matching the
+		// rest of the glob against paths relative to that directory
+		int slash = arg.lastIndexOf('/', wild);
+		Path base = Paths.get(slash < 0 ? "." : (slash == 0 ? "/" : arg.substring(0, slash)));
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg.substring(slash + 1));
+		if (Files.isDirectory(base)) {
+			walk(base, matcher, files);
+		}
+	}
+
+	private static int firstWildcard(String arg) {
+		for (int i = 0; i < arg.length(); i++) {
+			char c = arg.charAt(i);
+			if (c == '*' || c == '?' || c == '[' || c == '{') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void walk(final Path base, final PathMatcher matcher, final List<Path> files) throws IOException {
+		Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && matcher.matches(base.relativize(file))) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
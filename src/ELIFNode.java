@@ -0,0 +1,21 @@
+class ELIFNode implements RobotProgramNode {
+	final CONDNode Condition;
+	final BLOCKNode Block;
+
+	ELIFNode(CONDNode cond, BLOCKNode block) {
+		this.Condition = cond;
+		this.Block = block;
+	}
+
+	/** Only runs the block, the IFNode has already evaluated the condition */
+	@Override
+	public void execute(Robot robot) {
+		Block.execute(robot);
+	}
+
+	@Override
+	public String toString() {
+		return "elif (" + Condition.toString() + ") " + "{\n\t" + Block.toString() + "\n} ";
+	}
+
+}
@@ -0,0 +1,22 @@
+class ELSENode implements RobotProgramNode {
+	final BLOCKNode Block;
+	
+	ELSENode(){
+		this.Block = null;
+	}
+	
+	ELSENode(BLOCKNode block){
+		this.Block = block;
+	}
+	
+	@Override
+	public void execute(Robot robot) {
+			Block.execute(robot);
+	}
+	
+	@Override
+	public String toString() {
+		return "else " + "{\n\t" + Block.toString() + "\n} ";
+	}
+	
+}
@@ -0,0 +1,64 @@
+class EXPNode implements SensorNode {
+	final OPNode operation;
+	final SensorNode expr1;
+	final SensorNode expr2;
+
+	EXPNode(SensorNode e1) {
+		this.operation = null;
+		this.expr1 = e1;
+		this.expr2 = null;
+	}
+	
+	EXPNode(OPNode op, SensorNode e1, SensorNode e2){
+		this.operation = op;
+		this.expr1 = e1;
+		this.expr2 = e2;
+	}
+
+	@Override
+	public int evaluate(Robot robot) {
+		if (this.operation == null) {
+			return expr1.evaluate(robot);	
+		}
+		else {
+			if (operation.operation.toString().equals("add")) {
+				return expr1.evaluate(robot) + expr2.evaluate(robot);
+			}
+			else if (operation.operation.toString().equals("sub")) {
+				return expr1.evaluate(robot) - expr2.evaluate(robot);
+			}
+			else if (operation.operation.toString().equals("mul")) {
+				return expr1.evaluate(robot) * expr2.evaluate(robot);
+			}
+			else if (operation.operation.toString().equals("div")) {
+				return expr1.evaluate(robot) / expr2.evaluate(robot);
+			}
+			else {return -1;}
+		}
+	}
+
+	@Override
+	public String toString() {
+		
+		if (this.operation == null) {
+			return expr1.toString();
+		}
+		else {
+			if (operation.operation.toString().equals("add")) {
+				return "add (" + expr1.toString() + "," + expr2.toString() + ")";
+			}
+			else if (operation.operation.toString().equals("sub")) {
+				return "sub (" + expr1.toString() + "," + expr2.toString() + ")";
+			}
+			else if (operation.operation.toString().equals("mul")) {
+				return "mul (" + expr1.toString() + "," + expr2.toString() + ")";
+			}
+			else if (operation.operation.toString().equals("div")) {
+				return "div (" + expr1.toString() + "," + expr2.toString() + ")";
+			}
+			else {return null;}
+		}
+		
+	}
+
+}
@@ -0,0 +1,12 @@
+class FuelLeftNode implements SensorNode {
+
+	@Override
+	public int evaluate(Robot robot) {
+		return robot.getFuel();
+	}
+
+	@Override
+	public String toString() {
+		return "fuelLeft";
+	}
+}
@@ -0,0 +1,133 @@
+import java.awt.Point;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Where and when fuel turns up in a world, fixed in advance. A world given a
+ * schedule puts out the fuel for tick 0 when the game starts and that for
+ * tick t on its t-th update, instead of placing it at random.
+ *
+ * A schedule file has a line "tick x y" for each barrel. A line of just "x
+ * y" is for tick 0, so the fuel files World.RoboGamePrinter reads are
+ * schedules too. Run as
+ *
+ * <pre>
+ * java FuelSchedule [-seed n] [-ticks n] [file]
+ * </pre>
+ *
+ * to write the schedule a world with the seed would place at random, to the
+ * file or standard output, after checking that a headless match plays the
+ * same from the schedule as from the seed.
+ */
+class FuelSchedule {
+
+	/** The barrels of each tick, up to the last with any */
+	private final List<List<Point>> ticks = new ArrayList<List<Point>>();
+
+	/** Adds a barrel at the tick */
+	void add(int tick, Point fuel) {
+		while (ticks.size() <= tick) {
+			ticks.add(new ArrayList<Point>());
+		}
+		ticks.get(tick).add(fuel);
+	}
+
+	/** The barrels put out at the tick */
+	List<Point> at(int tick) {
+		return (tick < ticks.size()) ? Collections.unmodifiableList(ticks.get(tick)) : Collections.<Point> emptyList();
+	}
+
+	/** The fuel a world with the seed would place at random, for the ticks given */
+	static FuelSchedule generate(long seed, int ticks) {
+		Random rand = new Random(seed);
+		FuelSchedule schedule = new FuelSchedule();
+		for (int i = 0; i < 2; i++) {
+			schedule.add(0, World.randomFuel(rand, true));
+		}
+		for (int tick = 1; tick <= ticks; tick++) {
+			Point fuel = World.randomFuel(rand, false);
+			if (fuel != null) {
+				schedule.add(tick, fuel);
+			}
+		}
+		return schedule;
+	}
+
+	static FuelSchedule load(File file) throws IOException {
+		FuelSchedule schedule = new FuelSchedule();
+		for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			try {
+				if (fields.length == 2) {
+					schedule.add(0, new Point(Integer.parseInt(fields[0]), Integer.parseInt(fields[1])));
+				} else if (fields.length == 3) {
+					schedule.add(Integer.parseInt(fields[0]),
+							new Point(Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+				} else {
+					throw new IOException(file + ": not a fuel line: " + line);
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException(file + ": not a fuel line: " + line);
+			}
+		}
+		return schedule;
+	}
+
+	void save(PrintStream out) {
+		for (int tick = 0; tick < ticks.size(); tick++) {
+			for (Point fuel : ticks.get(tick)) {
+				out.println(tick + " " + fuel.x + " " + fuel.y);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		int ticks = 1000;
+		File file = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-ticks") && i + 1 < args.length) {
+				ticks = Integer.parseInt(args[++i]);
+			} else {
+				file = new File(args[i]);
+			}
+		}
+		RoboGame.debugDisplay = false;
+		FuelSchedule schedule = generate(seed, ticks);
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Simulation seeded = new Simulation(new World(seed), null, null);
+		seeded.play(ticks);
+		Simulation scheduled = new Simulation(new World(schedule), null, null);
+		scheduled.play(ticks);
+		System.setOut(out);
+		if (!seeded.result().equals(scheduled.result())
+				|| !seeded.getWorld().getAvailableFuel().equals(scheduled.getWorld().getAvailableFuel())) {
+			System.err.println("The schedule plays differently from the seed");
+			System.exit(1);
+		}
+
+		if (file == null) {
+			schedule.save(System.out);
+		} else {
+			try (PrintStream fileOut = new PrintStream(file, "UTF-8")) {
+				schedule.save(fileOut);
+			}
+		}
+	}
+}
@@ -0,0 +1,13 @@
+class GTNode implements ConditionNode {
+
+	@Override
+	public boolean evaluate(Robot robot) {
+		// TODO Auto-generated method stub
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "gt";
+	}
+}
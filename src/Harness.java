@@ -0,0 +1,285 @@
+import java.awt.Point;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What the checks in the mains of Bytecode, ClassCompiler, Optimizer,
+ * Specializer, Stepper, ReplayLog and Simulation share: finding and parsing
+ * the programs to check, robots to run them on that stop after a number of
+ * actions, and the check that a way of running programs gives the robot the
+ * same history as the parsed tree does, on those programs and on SPINNING.
+ */
+class Harness {
+
+	/** How many runs of each program are timed */
+	static final int RUNS = 20;
+
+	/**
+	 * Programs that go round a loop without doing an action, which robots
+	 * must make wait or cancel once they are over their loop budget instead
+	 * of letting them spin for ever.
+	 */
+	static final String[] SPINNING = { "loop { if (eq(1, 0)) { move; } }",
+			"while (gt(fuelLeft, 0)) { $x = add($x, 1); }", "loop { shieldOn; }", "loop { shieldOn; shieldOff; }" };
+
+	/** The loop budget of the robots checked, small so spinning programs are quick to check */
+	static final int LOOP_BUDGET = 1000;
+
+	/** Fuel put out for every run, so all see the same world */
+	private static final int[][] FUEL = { { 3, 4 }, { 8, 2 }, { 5, 9 }, { 0, 7 } };
+
+	private static final PrintStream OUT = System.out;
+	private static final PrintStream QUIET = new PrintStream(OutputStream.nullOutputStream());
+
+	/** Throws away what is printed, such as the robots' states, until loud is called */
+	static void quiet() {
+		System.setOut(QUIET);
+	}
+
+	/** Prints to standard output again */
+	static void loud() {
+		System.setOut(OUT);
+	}
+
+	/** The files given, or if there are none the .prog files in data/, sorted */
+	static List<File> programs(List<File> files) {
+		List<File> sorted = new ArrayList<File>(files);
+		if (sorted.isEmpty()) {
+			sorted.addAll(Arrays.asList(new File("data").listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.endsWith(".prog");
+				}
+			})));
+		}
+		sorted.sort(null);
+		return sorted;
+	}
+
+	/** The SPINNING programs, parsed */
+	static List<RobotProgramNode> spinning() {
+		List<RobotProgramNode> programs = new ArrayList<RobotProgramNode>();
+		for (String source : SPINNING) {
+			programs.add(IterativeParser.parseProgram(new Lexer(source)));
+		}
+		return programs;
+	}
+
+	/** Parses the file without printing any error, returning null if it doesn't parse */
+	static RobotProgramNode parse(File file) {
+		quiet();
+		try {
+			return Parser.parseFile(file);
+		} finally {
+			loud();
+		}
+	}
+
+	/**
+	 * A robot that is cancelled once it has done enough actions, or read its
+	 * sensors many times more than that, so programs that spin on their
+	 * sensors without acting still stop.
+	 */
+	private static class LimitedRobot extends Robot {
+		private final int limit;
+		private int reads;
+
+		LimitedRobot(World world, int x, int y, String colour, int limit) {
+			super(world, x, y, colour, true);
+			this.limit = limit;
+		}
+
+		@Override
+		public void readState() {
+			super.readState();
+			if (getHistory().size() >= limit) {
+				cancel();
+			}
+		}
+
+		private void read() {
+			if (++reads >= limit * 100) {
+				cancel();
+			}
+		}
+
+		@Override
+		public int getFuel() {
+			read();
+			return super.getFuel();
+		}
+
+		@Override
+		public int numBarrels() {
+			read();
+			return super.numBarrels();
+		}
+
+		@Override
+		public int getBarrelLR(int n) {
+			read();
+			return super.getBarrelLR(n);
+		}
+
+		@Override
+		public int getBarrelFB(int n) {
+			read();
+			return super.getBarrelFB(n);
+		}
+
+		@Override
+		public int getOpponentLR() {
+			read();
+			return super.getOpponentLR();
+		}
+
+		@Override
+		public int getOpponentFB() {
+			read();
+			return super.getOpponentFB();
+		}
+
+		@Override
+		public int getDistanceToWall() {
+			read();
+			return super.getDistanceToWall();
+		}
+	}
+
+	/**
+	 * Puts the program on the red robot of a fresh world, which doesn't wait
+	 * between turns, has a loop budget of LOOP_BUDGET and is cancelled once
+	 * it has done the given number of actions. The same fuel is put out
+	 * every time.
+	 */
+	static Robot robot(RobotProgramNode program, int actions) {
+		World world = new World();
+		Robot robot = new LimitedRobot(world, 0, 0, "red", actions);
+		robot.setLoopBudget(LOOP_BUDGET);
+		world.robots = new Robot[] { null, robot, new Robot(world, World.SIZE - 1, World.SIZE - 1, "blue", true) };
+		for (int[] f : FUEL) {
+			world.availableFuel.add(new Point(f[0], f[1]));
+		}
+		world.robots[2].updatePending();
+		robot.updatePending();
+		robot.setProgram(program);
+		return robot;
+	}
+
+	/**
+	 * Runs the robot until it is cancelled or its program ends, returning how
+	 * it stopped: null if it was cancelled or finished, otherwise the
+	 * exception that stopped it.
+	 */
+	private static String run(Robot robot) {
+		try {
+			robot.run();
+		} catch (RobotInterruptedException e) {
+			// done enough actions
+		} catch (RuntimeException e) {
+			return e.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * The history of the robot running the program, ending with the exception
+	 * that stopped it if any.
+	 */
+	static List<String> trace(RobotProgramNode program, int actions) {
+		Robot robot = robot(program, actions);
+		String stopped = run(robot);
+		List<String> history = new ArrayList<String>(robot.getHistory());
+		if (stopped != null) {
+			history.add(stopped);
+		}
+		return history;
+	}
+
+	/** Nanoseconds to run the program on n fresh robots, not counting making them */
+	static long time(RobotProgramNode program, int actions, int n) {
+		long nanos = 0;
+		for (int i = 0; i < n; i++) {
+			Robot robot = robot(program, actions);
+			long start = System.nanoTime();
+			run(robot);
+			nanos += System.nanoTime() - start;
+		}
+		return nanos;
+	}
+
+	/** A way of running programs, checked against the parsed tree */
+	abstract static class Variant {
+		/** What the variant is called where a history differs */
+		final String name;
+
+		Variant(String name) {
+			this.name = name;
+		}
+
+		/** The program as the variant runs it */
+		abstract RobotProgramNode make(RobotProgramNode tree);
+
+		/** The history of a robot running the program the variant made */
+		List<String> trace(RobotProgramNode program, int actions) {
+			return Harness.trace(program, actions);
+		}
+
+		/** Printed after a program's line when the histories are the same */
+		String report(RobotProgramNode tree, RobotProgramNode program, List<String> history, int actions) {
+			return "";
+		}
+	}
+
+	/**
+	 * Runs each program, and each of SPINNING, both as parsed and as the
+	 * variant makes it, printing a line for each: that the histories are the
+	 * same, with the variant's report, or where they first differ. Files that
+	 * don't parse are left out. Returns whether every history was the same.
+	 */
+	static boolean check(List<File> files, int actions, Variant variant) {
+		boolean same = true;
+		for (File file : files) {
+			RobotProgramNode tree = parse(file);
+			if (tree != null) {
+				same &= check(file.getName(), tree, actions, variant);
+			}
+		}
+		List<RobotProgramNode> spinning = spinning();
+		for (int i = 0; i < spinning.size(); i++) {
+			same &= check("spinning " + (i + 1), spinning.get(i), actions, variant);
+		}
+		return same;
+	}
+
+	private static boolean check(String name, RobotProgramNode tree, int actions, Variant variant) {
+		RobotProgramNode program = variant.make(tree);
+		quiet();
+		List<String> expected, got;
+		String report;
+		try {
+			expected = trace(tree, actions);
+			got = variant.trace(program, actions);
+			report = expected.equals(got) ? variant.report(tree, program, expected, actions) : null;
+		} finally {
+			loud();
+		}
+		if (report != null) {
+			System.out.printf("%-16s same %5d states%s%n", name, expected.size(), report);
+			return true;
+		}
+		int i = 0;
+		while (i < expected.size() && i < got.size() && expected.get(i).equals(got.get(i))) {
+			i++;
+		}
+		System.out.println(name + " differs at state " + i + ":");
+		System.out.printf("  %-12s %s%n", "tree:", i < expected.size() ? expected.get(i) : "(end)");
+		System.out.printf("  %-12s %s%n", variant.name + ":", i < got.size() ? got.get(i) : "(end)");
+		return false;
+	}
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class IFNode implements RobotProgramNode {
+	final CONDNode Condition;
+	final BLOCKNode Block;
+	final List<ELIFNode> Elifs;
+	final ELSENode Else;
+	
+	IFNode(CONDNode cond, RobotProgramNode block) {
+		this(cond, block, new ArrayList<ELIFNode>(), null);
+	}
+
+
+	IFNode(CONDNode cond, RobotProgramNode block, ELSENode Else) {
+		this(cond, block, new ArrayList<ELIFNode>(), Else);
+	}
+
+	IFNode(CONDNode cond, RobotProgramNode block, List<ELIFNode> elifs, ELSENode Else) {
+		this.Condition = cond;
+		this.Block = (BLOCKNode) block;
+		this.Elifs = Collections.unmodifiableList(new ArrayList<ELIFNode>(elifs));
+		this.Else = Else;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		if (Condition.evaluate(robot)) {
+			Block.execute(robot);
+			return;
+		}
+		for (ELIFNode elif : Elifs) {
+			if (elif.Condition.evaluate(robot)) {
+				elif.execute(robot);
+				return;
+			}
+		}
+		if (Else != null) {
+			Else.execute(robot);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String s = "if (" + Condition.toString() + ") " + "{\n\t" + Block.toString() + "\n} ";
+		for (ELIFNode elif : Elifs) {
+			s += elif.toString();
+		}
+		if (Else != null) {
+			s += Else.toString();
+		}
+		return s;
+	}
+
+}
@@ -0,0 +1,624 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a program's source together with its tree, and brings the tree up to
+ * date after an edit of the source by parsing only the statements the edit
+ * touched. Every other subtree is reused, so an edit inside one statement
+ * costs about the same however long the rest of the program is.
+ *
+ * Where each statement is in the source is remembered in spans beside the
+ * tree, as the nodes don't know. Only the top level statements get spans
+ * when the whole program is parsed; the statements inside a loop, if or
+ * while are found by splitting its text into blocks and statements the first
+ * time an edit falls inside it. Span offsets are relative to the statement
+ * they are in, so an edit only moves the spans after it on its own path.
+ *
+ * An edit is parsed as the run of statements it touches in the innermost
+ * block around it (or the one statement it is inside, if it is inside the
+ * condition of an if or while, say). The run starts and ends at statement
+ * boundaries, which are always next to punctuation, so its tokens are the
+ * same as a full parse would see. If that fails for any reason the whole
+ * program is parsed again, so the tree and any failure are always those of
+ * a full parse.
+ *
+ * Variables keep their slots across edits, so reused subtrees can keep
+ * their VARNodes. A full parse numbers variables in the order they are
+ * first used, so an edit that adds or removes variables can change the
+ * slots. When the statements parsed use variables differently from those
+ * they replace, the new tree is checked against that order, and parsed in
+ * full if it differs.
+ */
+class IncrementalParser {
+
+	/** A statement and where it is in the source */
+	private static final class Span {
+		// relative to the start of the statement it is in, or of the program
+		int start, length;
+		STMTNode node;
+		// the blocks of a loop, if or while, once they have been split
+		Block[] blocks;
+
+		Span(int start, int length, STMTNode node) {
+			this.start = start;
+			this.length = length;
+			this.node = node;
+		}
+	}
+
+	/** The statements of a block, or of the whole program */
+	private static final class Block {
+		// where the braces are, relative to the start of the statement
+		int open, close;
+		final ArrayList<Span> statements;
+
+		Block(int open, int close, ArrayList<Span> statements) {
+			this.open = open;
+			this.close = close;
+			this.statements = statements;
+		}
+	}
+
+	private final StringBuilder text;
+	private Block program;
+	private PROGNode root;
+	private int reparsed;
+	// the slots of the variables, kept across edits so reused subtrees keep
+	// theirs; copied for each edit, so a program already handed out never
+	// sees its table change
+	private Variables variables;
+
+	/**
+	 * Parses the whole source, throwing ParserFailureException if it is not a
+	 * valid program.
+	 */
+	IncrementalParser(String source) {
+		this.text = new StringBuilder(source);
+		parseAll();
+	}
+
+	/** The program as it is after the last edit */
+	RobotProgramNode getProgram() {
+		return root;
+	}
+
+	String getSource() {
+		return text.toString();
+	}
+
+	/** How many chars the last edit or parse had to parse */
+	int getReparsed() {
+		return reparsed;
+	}
+
+	/**
+	 * Replaces length chars at offset with the replacement and returns the
+	 * program parsed from the new source. Throws ParserFailureException, as a
+	 * full parse would, if the new source is not a valid program; the edit is
+	 * still made, and the next edit will parse the whole program.
+	 */
+	RobotProgramNode edit(int offset, int length, String replacement) {
+		if (offset < 0 || length < 0 || offset + length > text.length()) {
+			throw new IndexOutOfBoundsException("edit " + offset + "+" + length + " of " + text.length() + " chars");
+		}
+		if (root == null) {
+			text.replace(offset, offset + length, replacement);
+			return parseAll();
+		}
+		variables = root.variables.copy();
+
+		// find the innermost block whose statements the edit is between
+		List<Span> path = new ArrayList<Span>();
+		List<Block> blocks = new ArrayList<Block>();
+		List<Integer> indices = new ArrayList<Integer>();
+		Block block = program;
+		int base = 0;
+		int from, to;
+		while (true) {
+			List<Span> statements = block.statements;
+			int rel = offset - base;
+			int i = lastStartingBefore(statements, rel);
+			Span s = (i >= 0) ? statements.get(i) : null;
+			if (s != null && rel + length < s.start + s.length) {
+				// strictly inside s, go into the block it is in if any
+				from = i;
+				to = i + 1;
+				Block inner = null;
+				for (Block b : split(s, base)) {
+					if (b.open < rel - s.start && rel - s.start + length <= b.close) {
+						inner = b;
+					}
+				}
+				if (inner == null) {
+					break;
+				}
+				path.add(s);
+				blocks.add(block);
+				indices.add(i);
+				base += s.start;
+				block = inner;
+				continue;
+			}
+			// between statements, take every statement the edit touches
+			from = i + 1;
+			while (from > 0 && end(statements.get(from - 1)) >= rel) {
+				from--;
+			}
+			to = from;
+			while (to < statements.size() && statements.get(to).start <= rel + length) {
+				to++;
+			}
+			break;
+		}
+
+		text.replace(offset, offset + length, replacement);
+		int delta = replacement.length() - length;
+		List<Span> statements = block.statements;
+		int start = (from < to) ? Math.min(statements.get(from).start, offset - base) : offset - base;
+		int end = (from < to) ? Math.max(end(statements.get(to - 1)), offset - base + length) : offset - base + length;
+
+		List<Span> parsed;
+		try {
+			parsed = parseRun(base + start, base + end + delta, start);
+		} catch (ParserFailureException e) {
+			// let a full parse find the failure, with its place in the whole program
+			return parseAll();
+		}
+		if (parsed.isEmpty() && block != program && to - from == statements.size()) {
+			// an empty block
+			return parseAll();
+		}
+		reparsed = end + delta - start;
+		// the slots stay right if the variables are used in the same order as before
+		boolean renumber = !uses(nodes(statements.subList(from, to))).equals(uses(nodes(parsed)));
+
+		// splice the new statements in and move everything after them
+		statements.subList(from, to).clear();
+		statements.addAll(from, parsed);
+		for (int i = from + parsed.size(); i < statements.size(); i++) {
+			statements.get(i).start += delta;
+		}
+		block.close += delta;
+
+		// rebuild the statements the edit is in, innermost first
+		for (int level = path.size() - 1; level >= 0; level--) {
+			Span s = path.get(level);
+			s.length += delta;
+			int edited = -1;
+			for (int b = 0; b < s.blocks.length; b++) {
+				if (s.blocks[b] == block) {
+					edited = b;
+				} else if (edited >= 0) {
+					// a later block, whose statements are also relative to s
+					s.blocks[b].open += delta;
+					s.blocks[b].close += delta;
+					for (Span later : s.blocks[b].statements) {
+						later.start += delta;
+					}
+				}
+			}
+			s.node = rebuild(s.node, edited, blockNode(block));
+			block = blocks.get(level);
+			List<Span> siblings = block.statements;
+			for (int i = indices.get(level) + 1; i < siblings.size(); i++) {
+				siblings.get(i).start += delta;
+			}
+			block.close += delta;
+		}
+		root = new PROGNode(nodes(program.statements), variables);
+		if (renumber && !inFirstUseOrder(root)) {
+			// the slots a full parse would give have changed
+			return parseAll();
+		}
+		return root;
+	}
+
+	/** The names of the variables used in the nodes, in the order they are used */
+	private static List<String> uses(List<RobotProgramNode> nodes) {
+		List<String> names = new ArrayList<String>();
+		Deque<Object> stack = new ArrayDeque<Object>();
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			stack.push(nodes.get(i));
+		}
+		while (!stack.isEmpty()) {
+			Object node = stack.pop();
+			if (node instanceof VARNode) {
+				names.add(((VARNode) node).name);
+			}
+			List<Object> children = ProgramTree.children(node);
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Whether the program's variables are first used in the order of their
+	 * slots, with none unused, as a full parse would number them. The walk
+	 * stops at the first use of the last variable.
+	 */
+	private static boolean inFirstUseOrder(PROGNode root) {
+		Variables variables = root.variables;
+		Set<String> seen = new HashSet<String>();
+		Deque<Object> stack = new ArrayDeque<Object>();
+		stack.push(root);
+		while (!stack.isEmpty() && seen.size() < variables.size()) {
+			Object node = stack.pop();
+			if (node instanceof VARNode) {
+				String name = ((VARNode) node).name;
+				if (seen.add(name) && !name.equals(variables.name(seen.size() - 1))) {
+					return false;
+				}
+				continue;
+			}
+			List<Object> children = ProgramTree.children(node);
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+		return seen.size() == variables.size();
+	}
+
+	private static int end(Span s) {
+		return s.start + s.length;
+	}
+
+	/** The index of the last statement starting before offset, -1 if none */
+	private static int lastStartingBefore(List<Span> statements, int offset) {
+		int lo = 0, hi = statements.size() - 1, found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (statements.get(mid).start < offset) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private RobotProgramNode parseAll() {
+		root = null;
+		program = null;
+		reparsed = text.length();
+		variables = new Variables();
+		List<Span> spans = parseRun(0, text.length(), 0);
+		program = new Block(-1, text.length(), new ArrayList<Span>(spans));
+		root = new PROGNode(nodes(spans), variables);
+		return root;
+	}
+
+	/**
+	 * Parses the statements between the two offsets in the source, giving
+	 * spans whose starts are relative to where from is relative to, at offset.
+	 */
+	private List<Span> parseRun(int from, int to, final int offset) {
+		char[] chars = new char[to - from];
+		text.getChars(from, to, chars, 0);
+		final Lexer s = new Lexer(chars);
+		s.setVariables(variables);
+		final List<Span> spans = new ArrayList<Span>();
+		final long[] next = { s.offset() };
+		IterativeParser.parseStatements(s, new Consumer<RobotProgramNode>() {
+			@Override
+			public void accept(RobotProgramNode statement) {
+				int start = (int) next[0];
+				spans.add(new Span(offset + start, (int) s.consumedEnd() - start, (STMTNode) statement));
+				next[0] = s.offset();
+			}
+		});
+		return spans;
+	}
+
+	/**
+	 * The blocks of a loop, if or while statement, with the statements in
+	 * each. The text is split at the tokens that end statements: a ";" in the
+	 * block, or the "}" closing a nested block that is not followed by an elif
+	 * or else.
+	 */
+	private Block[] split(Span s, int base) {
+		if (s.blocks != null) {
+			return s.blocks;
+		}
+		List<BLOCKNode> nodes = blockNodes(s.node.child);
+		if (nodes.isEmpty()) {
+			s.blocks = new Block[0];
+			return s.blocks;
+		}
+		char[] chars = new char[s.length];
+		text.getChars(base + s.start, base + s.start + s.length, chars, 0);
+		Lexer lex = new Lexer(chars);
+		List<Block> blocks = new ArrayList<Block>();
+		ArrayList<Span> statements = null;
+		int depth = 0, open = 0, start = -1;
+		while (lex.hasNext()) {
+			int offset = (int) lex.offset();
+			Token t = lex.next();
+			if (depth == 0) {
+				if (t == Token.OPENBRACE) {
+					depth = 1;
+					open = offset;
+					statements = new ArrayList<Span>();
+				}
+				continue;
+			}
+			if (depth == 1 && t == Token.CLOSEBRACE) {
+				depth = 0;
+				List<RobotProgramNode> children = nodes.get(blocks.size()).children;
+				if (children.size() != statements.size()) {
+					throw new IllegalStateException("split a block into " + statements.size() + " statements, not "
+							+ children.size());
+				}
+				for (int i = 0; i < statements.size(); i++) {
+					statements.get(i).node = (STMTNode) children.get(i);
+				}
+				blocks.add(new Block(open, offset, statements));
+				continue;
+			}
+			if (start < 0) {
+				start = offset;
+			}
+			if (t == Token.OPENBRACE) {
+				depth++;
+			} else if (t == Token.CLOSEBRACE) {
+				depth--;
+			}
+			boolean ends = (depth == 1) && (t == Token.SEMICOLON
+					|| (t == Token.CLOSEBRACE && !lex.hasNext(Token.ELIF) && !lex.hasNext(Token.ELSE)));
+			if (ends) {
+				statements.add(new Span(start, (int) lex.consumedEnd() - start, null));
+				start = -1;
+			}
+		}
+		s.blocks = blocks.toArray(new Block[blocks.size()]);
+		return s.blocks;
+	}
+
+	/** The blocks of a statement, in source order */
+	private static List<BLOCKNode> blockNodes(RobotProgramNode statement) {
+		List<BLOCKNode> blocks = new ArrayList<BLOCKNode>();
+		if (statement instanceof LOOPNode) {
+			blocks.add(((LOOPNode) statement).block);
+		} else if (statement instanceof WHILENode) {
+			blocks.add(((WHILENode) statement).Block);
+		} else if (statement instanceof IFNode) {
+			IFNode n = (IFNode) statement;
+			blocks.add(n.Block);
+			for (ELIFNode elif : n.Elifs) {
+				blocks.add(elif.Block);
+			}
+			if (n.Else != null) {
+				blocks.add(n.Else.Block);
+			}
+		}
+		return blocks;
+	}
+
+	/** The statement with its index'th block replaced */
+	private static STMTNode rebuild(STMTNode statement, int index, BLOCKNode block) {
+		RobotProgramNode n = statement.child;
+		if (n instanceof LOOPNode) {
+			return new STMTNode(new LOOPNode(block));
+		} else if (n instanceof WHILENode) {
+			return new STMTNode(new WHILENode(((WHILENode) n).Condition, block));
+		}
+		IFNode old = (IFNode) n;
+		if (index == 0) {
+			if (old.Elifs.isEmpty() && old.Else == null) {
+				return new STMTNode(new IFNode(old.Condition, block));
+			}
+			return new STMTNode(new IFNode(old.Condition, block, old.Elifs, old.Else));
+		}
+		List<ELIFNode> elifs = old.Elifs;
+		ELSENode otherwise = old.Else;
+		if (index <= elifs.size()) {
+			elifs = new ArrayList<ELIFNode>(elifs);
+			ELIFNode elif = elifs.get(index - 1);
+			elifs.set(index - 1, new ELIFNode(elif.Condition, block));
+		} else {
+			otherwise = new ELSENode(block);
+		}
+		return new STMTNode(new IFNode(old.Condition, old.Block, elifs, otherwise));
+	}
+
+	private static BLOCKNode blockNode(Block block) {
+		return new BLOCKNode(nodes(block.statements));
+	}
+
+	private static List<RobotProgramNode> nodes(List<Span> spans) {
+		List<RobotProgramNode> nodes = new ArrayList<RobotProgramNode>(spans.size());
+		for (Span s : spans) {
+			nodes.add(s.node);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Checks incremental parsing against full parsing, first on edits that
+	 * add, remove and reorder variables, then on a generated program given
+	 * random edits: changed numbers and actions, inserted and deleted lines,
+	 * some with new variables, and stray characters. Each result, tree or
+	 * failure, must be the same as a full parse of the edited source. Then
+	 * times as many edits of one number after as many again to warm up. Run
+	 * as
+	 *
+	 * <pre>
+	 * java IncrementalParser [-seed n] [-size 1M] [-edits n]
+	 * </pre>
+	 */
+	public static void main(String[] args) {
+		long seed = 1;
+		long size = 64 * 1024;
+		int edits = 1000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-size")) {
+				size = ProgramGenerator.parseSize(args[i + 1]);
+			} else if (args[i].equals("-edits")) {
+				edits = Integer.parseInt(args[i + 1]);
+			}
+		}
+		IncrementalParser p = new IncrementalParser(VARIABLES_SOURCE);
+		for (String[] edit : VARIABLE_EDITS) {
+			if (!agrees(p, p.getSource().indexOf(edit[0]), edit[0].length(), edit[1], "'" + edit[1] + "'")) {
+				return;
+			}
+		}
+		System.out.println(VARIABLE_EDITS.length + " edits of variables agree with a full parse");
+
+		String source = new ProgramGenerator(seed).generate((int) size);
+		SplittableRandom random = new SplittableRandom(seed);
+
+		p = new IncrementalParser(source);
+		int failures = 0;
+		for (int n = 0; n < edits; n++) {
+			String text = p.getSource();
+			int[] edit = randomEdit(text, random);
+			String replacement = replacement(edit[2], random);
+			String name = n + " " + edit[0] + "+" + edit[1] + " '" + replacement + "'";
+			if (!agrees(p, edit[0], edit[1], replacement, name)) {
+				return;
+			}
+			if (p.getProgram() == null) {
+				failures++;
+				// put it back, so most edits are made to a valid program
+				p.edit(edit[0], replacement.length(), text.substring(edit[0], edit[0] + edit[1]));
+			}
+		}
+		System.out.printf("%d edits (%d failing) of %d chars agree with a full parse%n", edits, failures,
+				source.length());
+
+		long editNanos = 0, reparsed = 0;
+		for (int n = 0; n < 2 * edits; n++) {
+			String text = p.getSource();
+			// the start of a number, not the digits of a variable's name
+			int i = random.nextInt(text.length());
+			while (i < text.length() && !(Character.isDigit(text.charAt(i))
+					&& (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))))) {
+				i++;
+			}
+			if (i == text.length()) {
+				continue;
+			}
+			int j = i;
+			while (j < text.length() && Character.isDigit(text.charAt(j))) {
+				j++;
+			}
+			long start = System.nanoTime();
+			p.edit(i, j - i, Integer.toString(random.nextInt(100)));
+			if (n >= edits) {
+				editNanos += System.nanoTime() - start;
+				reparsed += p.getReparsed();
+			}
+		}
+		long start = System.nanoTime();
+		IterativeParser.parseProgram(new Lexer(p.getSource()));
+		long fullNanos = System.nanoTime() - start;
+		System.out.printf("full parse %.3f ms, edit %.3f ms parsing %d chars on average%n", fullNanos / 1e6,
+				editNanos / 1e6 / edits, reparsed / edits);
+	}
+
+	/**
+	 * Makes the edit and compares the result, tree or failure, with a full
+	 * parse of the edited source, printing both if they differ. Returns
+	 * whether they agree.
+	 */
+	private static boolean agrees(IncrementalParser p, int offset, int length, String replacement, String edit) {
+		String text = p.getSource();
+		String expected = text.substring(0, offset) + replacement + text.substring(offset + length);
+		RobotProgramNode got = null, full = null;
+		String gotFailure = null, fullFailure = null;
+		try {
+			got = p.edit(offset, length, replacement);
+		} catch (ParserFailureException e) {
+			gotFailure = e.getLine() + ":" + e.getColumn() + " " + e.getMessage();
+		}
+		try {
+			full = IterativeParser.parseProgram(new Lexer(expected));
+		} catch (ParserFailureException e) {
+			fullFailure = e.getLine() + ":" + e.getColumn() + " " + e.getMessage();
+		}
+		boolean same = (full != null) ? got != null && ProgramTree.sameTree(full, got)
+				: fullFailure.equals(gotFailure);
+		if (!same || !p.getSource().equals(expected)) {
+			System.out.println("Edit " + edit + " gave a different result from a full parse:");
+			System.out.println(got != null ? got : gotFailure);
+			System.out.println(full != null ? full : fullFailure);
+			return false;
+		}
+		return true;
+	}
+
+	private static final String VARIABLES_SOURCE = "$a = 1;\n$b = 2;\nmove;\n$a = 3;\n";
+
+	/**
+	 * Edits of VARIABLES_SOURCE in turn, each the text to replace, found
+	 * where it first is, and what replaces it. Each adds a variable, removes
+	 * the only use of one, or changes which is used first.
+	 */
+	private static final String[][] VARIABLE_EDITS = { { "", "$c = 3;\n" }, { "$c = 3;\n", "" },
+			{ "$a = 1;", "$b = 0;" }, { "move;", "$d = 4;" }, { "$a = 3;\n", "$a = 3;\n$e = $d;\n" },
+			{ "$d = 4;", "move;" }, { "$b = 0;\n", "" }, { "", "$e = 1;\n" } };
+
+	private static final String[] REPLACEMENTS = { "turnL", "shieldOn", "wait(3)", "move(add($v0, 1))",
+			"turnR;\n", "if (gt(oppFB, 2)) { takeFuel; } else { wait; }\n", "$w = 1;\n", "$x = add($w, 2);\n", "",
+			"}", ";", "(", " ", "x" };
+
+	/** Picks an edit to a random line: {offset, length, kind of replacement} */
+	private static int[] randomEdit(String text, SplittableRandom random) {
+		int at = random.nextInt(text.length());
+		int lineStart = text.lastIndexOf('\n', at - 1) + 1;
+		int lineEnd = text.indexOf('\n', at);
+		if (lineEnd < 0) {
+			lineEnd = text.length();
+		}
+		int kind = random.nextInt(10);
+		if (kind < 3) {
+			// a number
+			for (int i = lineStart; i < lineEnd; i++) {
+				if (Character.isDigit(text.charAt(i))) {
+					int j = i;
+					while (j < lineEnd && Character.isDigit(text.charAt(j))) {
+						j++;
+					}
+					return new int[] { i, j - i, -1 };
+				}
+			}
+		}
+		if (kind < 6) {
+			// the first word on the line
+			int i = lineStart;
+			while (i < lineEnd && Character.isWhitespace(text.charAt(i))) {
+				i++;
+			}
+			int j = i;
+			while (j < lineEnd && Character.isLetter(text.charAt(j))) {
+				j++;
+			}
+			return new int[] { i, j - i, random.nextInt(4) };
+		}
+		if (kind < 8) {
+			// insert a line
+			return new int[] { lineStart, 0, 4 + random.nextInt(4) };
+		}
+		if (kind < 9) {
+			// delete the line
+			return new int[] { lineStart, Math.min(text.length(), lineEnd + 1) - lineStart, 8 };
+		}
+		// a stray character
+		return new int[] { at, 0, 9 + random.nextInt(REPLACEMENTS.length - 9) };
+	}
+
+	private static String replacement(int kind, SplittableRandom random) {
+		return (kind < 0) ? Integer.toString(random.nextInt(1000)) : REPLACEMENTS[kind];
+	}
+}
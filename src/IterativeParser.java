@@ -0,0 +1,346 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A parser for the same grammar as Parser, giving identical trees and
+ * identical failures, that keeps its own stack of partly parsed productions
+ * instead of recursing. The depth of nesting it can handle is limited by the
+ * heap rather than the thread stack, so machine generated programs with
+ * hundreds of thousands of nested blocks or expressions parse in linear time.
+ *
+ * The productions that can nest (statements, blocks, conditions and
+ * expressions) are frames on the stack. A frame runs until it needs a nested
+ * production, pushes a frame for it and records the state to resume in; when
+ * the nested frame finishes its node is handed back in result. The leaf
+ * productions are shared with Parser.
+ */
+class IterativeParser {
+
+	// productions
+	private static final int PROG = 0, STMT = 1, BLOCK = 2, COND = 3, EXP = 4;
+
+	// states to resume in, once the nested production is done
+	private static final int START = 0, NEXT = 1, LOOP_BLOCK = 2, IF_COND = 3, IF_BLOCK = 4, ELIF_COND = 5,
+			ELIF_BLOCK = 6, ELSE_BLOCK = 7, WHILE_COND = 8, WHILE_BLOCK = 9, ASSIGN_EXP = 10, ACTION_ARG = 11,
+			FIRST = 12, SECOND = 13, RELOP_FIRST = 14, RELOP_SECOND = 15, SENSOR_ARG = 16;
+
+	/** A production being parsed */
+	private static class Frame {
+		final int production;
+		int state = START;
+		Token token;
+		Object first, second, third;
+		List<RobotProgramNode> statements;
+		List<ELIFNode> elifs;
+
+		Frame(int production) {
+			this.production = production;
+		}
+	}
+
+	private final Lexer s;
+	private final Consumer<RobotProgramNode> listener;
+	private final ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+	private Object result;
+
+	private IterativeParser(Lexer s, Consumer<RobotProgramNode> listener) {
+		this.s = s;
+		this.listener = listener;
+	}
+
+	/**
+	 * PROG ::= STMT*
+	 */
+	static RobotProgramNode parseProgram(Lexer s) {
+		return run(new IterativeParser(s, null));
+	}
+
+	/**
+	 * Parses a program, handing each top level statement to the listener as
+	 * soon as it is complete instead of collecting them into a PROGNode. Only
+	 * the statement being parsed is held in memory.
+	 */
+	static void parseStatements(Lexer s, Consumer<RobotProgramNode> listener) {
+		run(new IterativeParser(s, listener));
+	}
+
+	private static RobotProgramNode run(IterativeParser p) {
+		p.stack.push(new Frame(PROG));
+		while (!p.stack.isEmpty()) {
+			Frame f = p.stack.peek();
+			switch (f.production) {
+			case PROG:
+				p.program(f);
+				break;
+			case STMT:
+				p.statement(f);
+				break;
+			case BLOCK:
+				p.block(f);
+				break;
+			case COND:
+				p.condition(f);
+				break;
+			default:
+				p.expression(f);
+				break;
+			}
+		}
+		return (RobotProgramNode) p.result;
+	}
+
+	/** Suspends f until a nested production has been parsed */
+	private void call(Frame f, int resume, int production) {
+		f.state = resume;
+		stack.push(new Frame(production));
+	}
+
+	/** Finishes the top frame with the node it parsed */
+	private void ret(Object node) {
+		stack.pop();
+		result = node;
+	}
+
+	private void program(Frame f) {
+		if (f.state == START) {
+			f.statements = new ArrayList<RobotProgramNode>();
+		} else if (listener != null) {
+			listener.accept((RobotProgramNode) result);
+		} else {
+			f.statements.add((RobotProgramNode) result);
+		}
+		if (s.hasNext()) {
+			call(f, NEXT, STMT);
+		} else {
+			ret(new PROGNode(f.statements, s.variables()));
+		}
+	}
+
+	/**
+	 * BLOCK ::= "{" STMT+ "}"
+	 */
+	private void block(Frame f) {
+		if (f.state == START) {
+			f.statements = new ArrayList<RobotProgramNode>();
+			Parser.require(Token.OPENBRACE, "Missing '{'", s);
+			if (s.hasNext(Token.CLOSEBRACE)) {
+				Parser.fail("Cannot have empty block", s);
+			}
+		} else {
+			f.statements.add((RobotProgramNode) result);
+		}
+		if (!s.hasNext(Token.CLOSEBRACE)) {
+			call(f, NEXT, STMT);
+		} else {
+			Parser.require(Token.CLOSEBRACE, "Missing '}'", s);
+			ret(new BLOCKNode(f.statements));
+		}
+	}
+
+	/**
+	 * STMT ::= ACT ";" | LOOP | IF | WHILE | ASSGN ";"
+	 */
+	private void statement(Frame f) {
+		switch (f.state) {
+		case START:
+			switch (s.peek()) {
+			case LOOP:
+				Parser.require(Token.LOOP, "Missing 'loop'", s);
+				call(f, LOOP_BLOCK, BLOCK);
+				return;
+			case IF:
+				Parser.require(Token.IF, "Missing 'if'", s);
+				Parser.require(Token.OPENPAREN, "Missing '('", s);
+				call(f, IF_COND, COND);
+				return;
+			case WHILE:
+				Parser.require(Token.WHILE, "Missing 'while'", s);
+				Parser.require(Token.OPENPAREN, "Missing '('", s);
+				call(f, WHILE_COND, COND);
+				return;
+			case VAR:
+				f.first = Parser.parseVariable(s);
+				Parser.require(Token.ASSIGN, "Missing '='", s);
+				call(f, ASSIGN_EXP, EXP);
+				return;
+			case MOVE:
+			case WAIT:
+				f.token = s.next();
+				if (Parser.checkFor(Token.OPENPAREN, s)) {
+					call(f, ACTION_ARG, EXP);
+					return;
+				}
+				endAction(new ACTNode(f.token == Token.MOVE ? new MoveNode() : new WaitNode()));
+				return;
+			default:
+				// every other action is a single token
+				endAction(Parser.parseAction(s));
+				return;
+			}
+
+		case LOOP_BLOCK:
+			ret(new STMTNode(new LOOPNode((RobotProgramNode) result)));
+			return;
+
+		case IF_COND:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			f.first = result;
+			call(f, IF_BLOCK, BLOCK);
+			return;
+		case IF_BLOCK:
+			f.second = result;
+			f.elifs = new ArrayList<ELIFNode>();
+			elseOrElif(f);
+			return;
+		case ELIF_COND:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			f.third = result;
+			call(f, ELIF_BLOCK, BLOCK);
+			return;
+		case ELIF_BLOCK:
+			f.elifs.add(new ELIFNode((CONDNode) f.third, (BLOCKNode) result));
+			elseOrElif(f);
+			return;
+		case ELSE_BLOCK:
+			ret(new STMTNode(new IFNode((CONDNode) f.first, (RobotProgramNode) f.second, f.elifs,
+					new ELSENode((BLOCKNode) result))));
+			return;
+
+		case WHILE_COND:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			f.first = result;
+			call(f, WHILE_BLOCK, BLOCK);
+			return;
+		case WHILE_BLOCK:
+			ret(new STMTNode(new WHILENode((CONDNode) f.first, (RobotProgramNode) result)));
+			return;
+
+		case ASSIGN_EXP:
+			endAction(new ASSGNNode((VARNode) f.first, (EXPNode) result));
+			return;
+
+		case ACTION_ARG:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			EXPNode arg = (EXPNode) result;
+			endAction(new ACTNode(f.token == Token.MOVE ? new MoveNode(arg) : new WaitNode(arg)));
+			return;
+		}
+	}
+
+	private void elseOrElif(Frame f) {
+		if (Parser.checkFor(Token.ELIF, s)) {
+			Parser.require(Token.OPENPAREN, "Missing '('", s);
+			call(f, ELIF_COND, COND);
+		} else if (s.hasNext(Token.ELSE)) {
+			Parser.require(Token.ELSE, "Missing 'else'", s);
+			call(f, ELSE_BLOCK, BLOCK);
+		} else if (!f.elifs.isEmpty()) {
+			ret(new STMTNode(new IFNode((CONDNode) f.first, (RobotProgramNode) f.second, f.elifs, null)));
+		} else {
+			ret(new STMTNode(new IFNode((CONDNode) f.first, (RobotProgramNode) f.second)));
+		}
+	}
+
+	/** Finishes a statement that has to end with a ";" */
+	private void endAction(RobotProgramNode node) {
+		STMTNode StatementNode = new STMTNode(node);
+		Parser.require(Token.SEMICOLON, "Missing ';'", s);
+		ret(StatementNode);
+	}
+
+	/**
+	 * COND ::= "and" "(" COND "," COND ")" | "or" "(" COND "," COND ")" | "not"
+	 * "(" COND ")" | RELOP "(" EXP "," EXP ")"
+	 */
+	private void condition(Frame f) {
+		switch (f.state) {
+		case START:
+			if (Parser.LOGIC.contains(s.peek())) {
+				f.token = s.next();
+				Parser.require(Token.OPENPAREN, "Missing '('", s);
+				call(f, FIRST, COND);
+			} else {
+				f.first = Parser.parseRelop(s);
+				Parser.require(Token.OPENPAREN, "Missing '('", s);
+				call(f, RELOP_FIRST, EXP);
+			}
+			return;
+		case FIRST:
+			f.first = result;
+			if (f.token != Token.NOT) {
+				Parser.require(Token.COMMA, "Missing ','", s);
+				call(f, SECOND, COND);
+			} else {
+				Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+				ret(new CONDNode(f.token.text, (ConditionNode) f.first, null));
+			}
+			return;
+		case SECOND:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			ret(new CONDNode(f.token.text, (ConditionNode) f.first, (ConditionNode) result));
+			return;
+		case RELOP_FIRST:
+			f.second = new EXPNode((SensorNode) result);
+			Parser.require(Token.COMMA, "Missing ','", s);
+			call(f, RELOP_SECOND, EXP);
+			return;
+		case RELOP_SECOND:
+			EXPNode expr2 = new EXPNode((SensorNode) result);
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			ret(new CONDNode((RELOPNode) f.first, (EXPNode) f.second, expr2));
+			return;
+		}
+	}
+
+	/**
+	 * EXP ::= NUM | SEN | VAR | OP "(" EXP "," EXP ")"
+	 */
+	private void expression(Frame f) {
+		switch (f.state) {
+		case START:
+			if (Parser.OPS.contains(s.peek())) {
+				f.first = Parser.parseOP(s);
+				Parser.require(Token.OPENPAREN, "Missing '('", s);
+				call(f, FIRST, EXP);
+				return;
+			}
+			switch (s.peek()) {
+			case NUM:
+				ret(new EXPNode(Parser.parseNumber(s)));
+				return;
+			case VAR:
+				ret(new EXPNode(Parser.parseVariable(s)));
+				return;
+			case BARREL_LR:
+			case BARREL_FB:
+				f.token = s.next();
+				if (Parser.checkFor(Token.OPENPAREN, s)) {
+					call(f, SENSOR_ARG, EXP);
+				} else {
+					ret(new EXPNode(new SENNode(f.token == Token.BARREL_LR ? new BarrelLRNode() : new BarrelFBNode())));
+				}
+				return;
+			default:
+				// every other sensor is a single token
+				ret(new EXPNode(Parser.parseSensor(s)));
+				return;
+			}
+		case FIRST:
+			f.second = result;
+			Parser.require(Token.COMMA, "Missing ','", s);
+			call(f, SECOND, EXP);
+			return;
+		case SECOND:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			ret(new EXPNode((OPNode) f.first, (EXPNode) f.second, (EXPNode) result));
+			return;
+		case SENSOR_ARG:
+			Parser.require(Token.CLOSEPAREN, "Missing ')'", s);
+			EXPNode index = (EXPNode) result;
+			ret(new EXPNode(new SENNode(f.token == Token.BARREL_LR ? new BarrelLRNode(index) : new BarrelFBNode(index))));
+			return;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+class LOOPNode implements RobotProgramNode {
+	final BLOCKNode block;
+
+	LOOPNode(RobotProgramNode block) {
+		this.block = (BLOCKNode) block;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		// only stops when the robot is cancelled
+		while (true) {
+			block.execute(robot);
+			robot.loop();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "\nloop{ \n" + this.block.toString() + "\n" + "}";
+	}
+
+}
@@ -0,0 +1,384 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Splits robot program source into tokens for the Parser, with one token of
+ * lookahead.
+ *
+ * Tokens are split exactly as the old Scanner delimiter split them: on runs of
+ * whitespace, and either side of one of (){},; but the characters are walked
+ * directly instead of going through java.util.regex. Keywords are recognised
+ * in place in the char buffer, so only numbers, variables and unknown words
+ * ever allocate a String, and numbers only do so when their text is asked for.
+ *
+ * The source is either a char array holding all of it, or a Reader that is
+ * read through a fixed size buffer. The line and column of each token are
+ * counted as it is read, for error messages.
+ */
+class Lexer {
+
+	/** keyword tokens, indexed by their first character */
+	private static final Token[][] KEYWORDS = new Token[128][];
+
+	static {
+		for (Token t : Token.values()) {
+			if (t.text != null && !isPunctuation(t.text.charAt(0))) {
+				char c = t.text.charAt(0);
+				Token[] bucket = KEYWORDS[c] == null ? new Token[0] : KEYWORDS[c];
+				bucket = Arrays.copyOf(bucket, bucket.length + 1);
+				bucket[bucket.length - 1] = t;
+				KEYWORDS[c] = bucket;
+			}
+		}
+	}
+
+	/** The read buffer size used for streams */
+	static final int STREAM_BUFFER = 8192;
+
+	private char[] buf;
+	private int limit;
+	private int pos;
+
+	// when streaming, where more characters come from and the offset in the
+	// whole input of buf[0]
+	private final Reader in;
+	private boolean eof;
+	private long base;
+
+	// the current line and the offset in the whole input it starts at
+	private int line = 1;
+	private long lineStart;
+
+	// the lookahead token
+	private Token kind;
+	private int start, end;
+	private int value;
+	private String text;
+	private int tokenLine, tokenColumn;
+
+	// the offset just past the last token consumed
+	private long consumed;
+
+	// the slots the parser has given the variables read so far
+	private Variables variables = new Variables();
+
+	Lexer(char[] buf, int length) {
+		this.buf = buf;
+		this.limit = length;
+		this.pos = 0;
+		this.in = null;
+		advance();
+	}
+
+	/**
+	 * Reads the source from the stream through a buffer of bufferSize chars,
+	 * keeping only the token being read. The buffer only grows if a single
+	 * token is longer than it. IO errors while reading are thrown as
+	 * UncheckedIOException.
+	 */
+	Lexer(Reader in, int bufferSize) {
+		this.buf = new char[bufferSize];
+		this.limit = 0;
+		this.pos = 0;
+		this.in = in;
+		advance();
+	}
+
+	Lexer(char[] buf) {
+		this(buf, buf.length);
+	}
+
+	Lexer(String source) {
+		this(source.toCharArray());
+	}
+
+	/**
+	 * Reads the whole file, in the platform charset as Scanner did.
+	 */
+	Lexer(File file) throws IOException {
+		this(read(file));
+	}
+
+	private static char[] read(File file) throws IOException {
+		try (Reader in = new FileReader(file)) {
+			char[] data = new char[(int) Math.min(Integer.MAX_VALUE - 8, file.length() + 1)];
+			int n = 0;
+			int r;
+			while ((r = in.read(data, n, data.length - n)) > 0) {
+				n += r;
+				if (n == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+			}
+			return Arrays.copyOf(data, n);
+		}
+	}
+
+	/** The kind of the next token, EOF at the end of the input */
+	Token peek() {
+		return kind;
+	}
+
+	boolean hasNext() {
+		return kind != Token.EOF;
+	}
+
+	boolean hasNext(Token t) {
+		return kind == t;
+	}
+
+	/** The text of the next token */
+	String text() {
+		if (text == null) {
+			text = (kind.text != null) ? kind.text : new String(buf, start, end - start);
+		}
+		return text;
+	}
+
+	/** The value of the next token, which must be a NUM */
+	int intValue() {
+		return value;
+	}
+
+	/** The line of the next token, counted from 1 */
+	int line() {
+		return tokenLine;
+	}
+
+	/** The column of the next token, counted from 1 */
+	int column() {
+		return tokenColumn;
+	}
+
+	/** The offset in the input of the next token */
+	long offset() {
+		return base + start;
+	}
+
+	/** The offset in the input just past the last token consumed, 0 before any */
+	long consumedEnd() {
+		return consumed;
+	}
+
+	/**
+	 * The variables of the program being read, which the parser gives slots
+	 * as it meets them.
+	 */
+	Variables variables() {
+		return variables;
+	}
+
+	/**
+	 * Has the parser give variables the slots they have in the table, and
+	 * add any new ones to it, as when reading part of a program whose other
+	 * parts have already been parsed.
+	 */
+	void setVariables(Variables variables) {
+		this.variables = variables;
+	}
+
+	/** Consumes the next token and returns its kind */
+	Token next() {
+		Token t = kind;
+		advance();
+		return t;
+	}
+
+	/** Consumes the next token and returns its text */
+	String nextText() {
+		String s = text();
+		advance();
+		return s;
+	}
+
+	private void advance() {
+		consumed = base + end;
+		text = null;
+		char[] b = buf;
+		int p = pos;
+		while (true) {
+			if (p >= limit) {
+				pos = start = p;
+				boolean more = fill();
+				b = buf;
+				p = pos;
+				if (!more) {
+					break;
+				}
+				continue;
+			}
+			char c = b[p];
+			if (!isWhitespace(c)) {
+				break;
+			}
+			p++;
+			// only whitespace can hold a newline
+			if (c == '\n') {
+				line++;
+				lineStart = base + p;
+			}
+		}
+		start = p;
+		tokenLine = line;
+		tokenColumn = (int) (base + p - lineStart) + 1;
+		if (p >= limit) {
+			kind = Token.EOF;
+			end = pos = p;
+			return;
+		}
+		char c = b[p];
+		if (isPunctuation(c)) {
+			kind = punctuation(c);
+			end = pos = p + 1;
+			return;
+		}
+		while (true) {
+			if (p >= limit) {
+				pos = p;
+				boolean more = fill();
+				b = buf;
+				p = pos;
+				if (!more) {
+					break;
+				}
+				continue;
+			}
+			char d = b[p];
+			if (isWhitespace(d) || isPunctuation(d)) {
+				break;
+			}
+			p++;
+		}
+		end = pos = p;
+		kind = classify(b, start, end);
+	}
+
+	/**
+	 * Reads more of a stream into the buffer, first moving the part of the
+	 * current token already read to the front. Returns false at the end of
+	 * the input.
+	 */
+	private boolean fill() {
+		if (in == null || eof) {
+			return false;
+		}
+		if (start > 0) {
+			System.arraycopy(buf, start, buf, 0, limit - start);
+			base += start;
+			limit -= start;
+			pos -= start;
+			start = 0;
+		}
+		if (limit == buf.length) {
+			buf = Arrays.copyOf(buf, buf.length * 2);
+		}
+		try {
+			int n = in.read(buf, limit, buf.length - limit);
+			if (n < 0) {
+				eof = true;
+				return false;
+			}
+			limit += n;
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Token classify(char[] b, int from, int to) {
+		char c = b[from];
+		if (c < 128 && KEYWORDS[c] != null) {
+			int len = to - from;
+			for (Token t : KEYWORDS[c]) {
+				if (t.text.length() == len && matches(t.text, b, from)) {
+					return t;
+				}
+			}
+		}
+		if (c == '-' || (c >= '0' && c <= '9')) {
+			return number(b, from, to);
+		}
+		if (c == '$' && isVariable(b, from, to)) {
+			return Token.VAR;
+		}
+		return Token.IDENT;
+	}
+
+	private static boolean matches(String word, char[] b, int from) {
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) != b[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** -?[0-9]+ that fits in an int, the tokens Scanner.hasNextInt accepted */
+	private Token number(char[] b, int from, int to) {
+		boolean negative = b[from] == '-';
+		int i = negative ? from + 1 : from;
+		if (i == to) {
+			return Token.IDENT;
+		}
+		long v = 0;
+		for (; i < to; i++) {
+			char d = b[i];
+			if (d < '0' || d > '9') {
+				return Token.IDENT;
+			}
+			v = v * 10 + (d - '0');
+			if (v > (long) Integer.MAX_VALUE + 1) {
+				return Token.IDENT;
+			}
+		}
+		v = negative ? -v : v;
+		if (v > Integer.MAX_VALUE) {
+			return Token.IDENT;
+		}
+		value = (int) v;
+		return Token.NUM;
+	}
+
+	/** \$[A-Za-z][A-Za-z0-9]* */
+	private static boolean isVariable(char[] b, int from, int to) {
+		if (to - from < 2 || !Character.isLetter(b[from + 1])) {
+			return false;
+		}
+		for (int i = from + 2; i < to; i++) {
+			if (!Character.isLetterOrDigit(b[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(char c) {
+		// the characters matched by the regex \s
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+	}
+
+	private static boolean isPunctuation(char c) {
+		return c == '(' || c == ')' || c == '{' || c == '}' || c == ',' || c == ';';
+	}
+
+	private static Token punctuation(char c) {
+		switch (c) {
+		case '(':
+			return Token.OPENPAREN;
+		case ')':
+			return Token.CLOSEPAREN;
+		case '{':
+			return Token.OPENBRACE;
+		case '}':
+			return Token.CLOSEBRACE;
+		case ',':
+			return Token.COMMA;
+		default:
+			return Token.SEMICOLON;
+		}
+	}
+}
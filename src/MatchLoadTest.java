@@ -0,0 +1,92 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs many matches at once in one JVM, each started with World.start so
+ * every robot runs on whatever World's executor gives it, and reports the
+ * memory each match takes and how many matches a second get played. Run as
+ *
+ * <pre>
+ * java MatchLoadTest [-matches n] [-ticks n] [-program file]
+ * </pre>
+ *
+ * All the matches are started, then this thread ticks every world the given
+ * number of times, as WorldComponent's timer does for one, and resets them,
+ * waiting for all their robots' threads to end. Memory is the heap in use
+ * once every match has started, less that before, per match; platform
+ * threads' stacks are outside the heap and are not counted.
+ */
+class MatchLoadTest {
+
+	public static void main(String[] args) throws InterruptedException {
+		int matches = 10000, ticks = 50;
+		String file = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-matches")) {
+				matches = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-ticks")) {
+				ticks = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-program")) {
+				file = args[i + 1];
+			}
+		}
+		RoboGame.debugDisplay = false;
+		RobotProgramNode program = (file == null)
+				? IterativeParser.parseProgram(new Lexer("loop { move; turnL; wait; }".toCharArray()))
+				: Parser.parseFile(new File(file));
+		program = World.runnable(program);
+		// the robots print their state after every action
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		PrintStream out = System.err;
+		out.println("executor: " + World.getExecutor().getClass().getName());
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		// a first world, so the images and classes are loaded before measuring
+		new World();
+		System.gc();
+		long before = memory.getHeapMemoryUsage().getUsed();
+
+		long start = System.nanoTime();
+		List<World> worlds = new ArrayList<World>(matches);
+		for (int i = 0; i < matches; i++) {
+			World world = new World();
+			world.getRobot(1).setProgram(program);
+			world.getRobot(2).setProgram(program);
+			world.start();
+			worlds.add(world);
+		}
+		long started = System.nanoTime();
+		System.gc();
+		long after = memory.getHeapMemoryUsage().getUsed();
+		int live = threads.getThreadCount();
+
+		for (int t = 0; t < ticks; t++) {
+			for (World world : worlds) {
+				world.updateWorld();
+			}
+			// give the robots' threads a moment to start their next actions
+			Thread.sleep(1);
+		}
+		for (World world : worlds) {
+			world.reset();
+		}
+		for (World world : worlds) {
+			while (world.isRunning()) {
+				Thread.sleep(1);
+			}
+		}
+		long nanos = System.nanoTime() - start;
+
+		out.printf("%d matches started in %.0f ms, %d live threads%n", matches, (started - start) / 1e6, live);
+		out.printf("%.1f KB of heap per match%n", (after - before) / 1024.0 / matches);
+		out.printf("%d ticks each, all done in %.0f ms: %.0f matches/s%n", ticks, nanos / 1e6,
+				matches / (nanos / 1e9));
+	}
+}
@@ -0,0 +1,28 @@
+class MoveNode implements RobotProgramNode {
+	final EXPNode expr;
+
+	MoveNode() {
+		expr = null;
+	}
+
+	MoveNode(EXPNode expr) {
+		this.expr = expr;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		int steps = (expr == null) ? 1 : expr.evaluate(robot);
+		for (int i = 0; i < steps; i++) {
+			robot.move();
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (expr == null) {
+			return "move; ";
+		}
+		return "move(" + expr.toString() + "); ";
+	}
+
+}
@@ -0,0 +1,17 @@
+class NUMNode implements SensorNode {
+	final int value;
+
+	NUMNode(int val) {
+		this.value = val;
+	}
+
+	@Override
+	public int evaluate(Robot robot) {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "" + value;
+	}
+}
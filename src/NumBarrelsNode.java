@@ -0,0 +1,12 @@
+class NumBarrelsNode implements SensorNode {
+
+	@Override
+	public int evaluate(Robot robot) {
+		return robot.numBarrels();
+	}
+
+	@Override
+	public String toString() {
+		return "numBarrels";
+	}
+}
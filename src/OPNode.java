@@ -0,0 +1,19 @@
+class OPNode implements SensorNode {
+	final String operation;
+	
+	OPNode(String s){
+		this.operation = s;
+	}
+	
+	@Override
+	public int evaluate(Robot robot) {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+	
+	@Override
+	public String toString() {
+		return this.operation;
+	}
+	
+}
@@ -0,0 +1,12 @@
+class OppFBNode implements SensorNode {
+
+	@Override
+	public int evaluate(Robot robot) {
+		return robot.getOpponentFB();
+	}
+
+	@Override
+	public String toString() {
+		return "oppFB";
+	}
+}
@@ -0,0 +1,12 @@
+class OppLRNode implements SensorNode {
+
+	@Override
+	public int evaluate(Robot robot) {
+		return robot.getOpponentLR();
+	}
+
+	@Override
+	public String toString() {
+		return "oppLR";
+	}
+}
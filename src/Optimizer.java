@@ -0,0 +1,304 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies a parsed program before it is run, without changing anything
+ * the robot sees. Run between parsing a program and giving it to
+ * Robot.setProgram.
+ *
+ * Arithmetic on numbers alone is folded into a number, except division by
+ * zero, which is left to fail when it runs. Adding or subtracting 0 and
+ * multiplying or dividing by 1 are dropped. Relations between numbers become
+ * eq(0, 0) or eq(0, 1), which and, or and not then simplify further:
+ * not(not(c)) is c, and an and or or with a constant half is its other half
+ * or the constant. If, elif and while branches whose conditions are constant
+ * are taken for good or removed.
+ *
+ * Only parts of the program that make no calls on the robot are ever
+ * removed: sensors and variables are still read exactly as often and in the
+ * same order, so and(fuelLeft, eq(1, 0)) stays as it is. Blocks left with no
+ * statements are kept, and run as nothing. Run as
+ *
+ * <pre>
+ * java Optimizer [-actions n] [file...]
+ * </pre>
+ *
+ * to check that each program, by default those in data/, runs the same
+ * optimised as it does as parsed.
+ */
+class Optimizer {
+
+	private int removed;
+
+	/**
+	 * A simplified copy of the program. The program itself is left as it is.
+	 */
+	RobotProgramNode optimize(RobotProgramNode program) {
+		RobotProgramNode result = program;
+		if (program instanceof PROGNode) {
+			PROGNode prog = (PROGNode) program;
+			result = new PROGNode(statements(prog.children), prog.variables);
+		}
+		removed = ProgramTree.size(program) - ProgramTree.size(result);
+		return result;
+	}
+
+	/** How many fewer nodes the last program optimised has */
+	int getRemoved() {
+		return removed;
+	}
+
+	private List<RobotProgramNode> statements(List<RobotProgramNode> statements) {
+		List<RobotProgramNode> result = new ArrayList<RobotProgramNode>(statements.size());
+		for (RobotProgramNode statement : statements) {
+			statement(statement, result);
+		}
+		return result;
+	}
+
+	private BLOCKNode block(BLOCKNode block) {
+		return new BLOCKNode(statements(block.children));
+	}
+
+	/**
+	 * Adds the simplified statement to the list, or the statements of the
+	 * branch it always takes, or nothing if it never does anything.
+	 */
+	private void statement(RobotProgramNode node, List<RobotProgramNode> out) {
+		RobotProgramNode s = (node instanceof STMTNode) ? ((STMTNode) node).child : node;
+		if (s instanceof IFNode) {
+			ifStatement((IFNode) s, out);
+		} else if (s instanceof WHILENode) {
+			WHILENode n = (WHILENode) s;
+			CONDNode c = condition(n.Condition);
+			Boolean b = truth(c);
+			if (b == null) {
+				out.add(new STMTNode(new WHILENode(c, block(n.Block))));
+			} else if (b) {
+				out.add(new STMTNode(new LOOPNode(block(n.Block))));
+			}
+		} else if (s instanceof LOOPNode) {
+			out.add(new STMTNode(new LOOPNode(block(((LOOPNode) s).block))));
+		} else if (s instanceof ASSGNNode) {
+			ASSGNNode n = (ASSGNNode) s;
+			out.add(new STMTNode(new ASSGNNode(n.var, expression(n.expr))));
+		} else if (s instanceof ACTNode && ((ACTNode) s).child instanceof MoveNode) {
+			EXPNode steps = ((MoveNode) ((ACTNode) s).child).expr;
+			out.add(new STMTNode(new ACTNode(steps == null ? new MoveNode() : new MoveNode(expression(steps)))));
+		} else if (s instanceof ACTNode && ((ACTNode) s).child instanceof WaitNode) {
+			EXPNode turns = ((WaitNode) ((ACTNode) s).child).expr;
+			out.add(new STMTNode(new ACTNode(turns == null ? new WaitNode() : new WaitNode(expression(turns)))));
+		} else {
+			out.add(node);
+		}
+	}
+
+	/**
+	 * Drops the branches that are never taken, and those after one that always
+	 * is, which becomes the else.
+	 */
+	private void ifStatement(IFNode n, List<RobotProgramNode> out) {
+		List<ELIFNode> all = new ArrayList<ELIFNode>();
+		all.add(new ELIFNode(n.Condition, n.Block));
+		all.addAll(n.Elifs);
+		List<ELIFNode> branches = new ArrayList<ELIFNode>();
+		BLOCKNode otherwise = null;
+		boolean taken = false;
+		for (ELIFNode branch : all) {
+			CONDNode c = condition(branch.Condition);
+			Boolean b = truth(c);
+			if (b == null) {
+				branches.add(new ELIFNode(c, block(branch.Block)));
+			} else if (b) {
+				otherwise = block(branch.Block);
+				taken = true;
+				break;
+			}
+		}
+		if (!taken && n.Else != null) {
+			otherwise = block(n.Else.Block);
+		}
+
+		if (branches.isEmpty()) {
+			if (otherwise != null) {
+				out.addAll(otherwise.children);
+			}
+			return;
+		}
+		ELSENode e = (otherwise == null) ? null : new ELSENode(otherwise);
+		ELIFNode first = branches.remove(0);
+		out.add(new STMTNode(new IFNode(first.Condition, first.Block, branches, e)));
+	}
+
+	/**
+	 * COND ::= "and" "(" COND "," COND ")" | "or" "(" COND "," COND ")" | "not"
+	 * "(" COND ")" | RELOP "(" EXP "," EXP ")"
+	 */
+	private CONDNode condition(ConditionNode node) {
+		CONDNode c = (CONDNode) node;
+		if (c.cond == null) {
+			EXPNode a = expression(c.expr1), b = expression(c.expr2);
+			Integer x = constant(a), y = constant(b);
+			if (x != null && y != null) {
+				if (c.Relop.operation instanceof LTNode) {
+					return constant(x < y);
+				} else if (c.Relop.operation instanceof GTNode) {
+					return constant(x > y);
+				} else if (c.Relop.operation instanceof EQNode) {
+					return constant(x.intValue() == y.intValue());
+				}
+			}
+			return new CONDNode(c.Relop, a, b);
+		}
+
+		boolean and = c.cond.equals("and");
+		if (and || c.cond.equals("or")) {
+			CONDNode first = condition(c.condParam1);
+			Boolean f = truth(first);
+			if (f != null && f != and) {
+				// decides without the second half being looked at
+				return first;
+			}
+			CONDNode second = condition(c.condParam2);
+			if (f != null) {
+				return second;
+			}
+			Boolean s = truth(second);
+			if (s != null && s == and) {
+				return first;
+			}
+			return new CONDNode(c.cond, first, second);
+		}
+
+		// anything else is a not
+		CONDNode inner = condition(c.condParam1);
+		Boolean b = truth(inner);
+		if (b != null) {
+			return constant(!b);
+		}
+		if (inner.cond != null && !inner.cond.equals("and") && !inner.cond.equals("or")) {
+			return (CONDNode) inner.condParam1;
+		}
+		return new CONDNode(c.cond, inner, null);
+	}
+
+	/** The condition that is always b */
+	private static CONDNode constant(boolean b) {
+		return new CONDNode(new RELOPNode(new EQNode()), number(0), number(b ? 0 : 1));
+	}
+
+	/** What the condition always is, or null if it depends on the robot */
+	private static Boolean truth(CONDNode c) {
+		if (c.cond != null || !(c.Relop.operation instanceof EQNode)) {
+			return null;
+		}
+		Integer x = constant(c.expr1), y = constant(c.expr2);
+		if (x == null || y == null) {
+			return null;
+		}
+		return x.intValue() == y.intValue();
+	}
+
+	/**
+	 * EXP ::= NUM | SEN | VAR | OP "(" EXP "," EXP ")"
+	 */
+	private EXPNode expression(SensorNode node) {
+		if (node instanceof EXPNode) {
+			EXPNode n = (EXPNode) node;
+			if (n.operation == null) {
+				// an expression that only holds another is that expression
+				return expression(n.expr1);
+			}
+			EXPNode a = expression(n.expr1), b = expression(n.expr2);
+			Integer x = constant(a), y = constant(b);
+			switch (n.operation.operation) {
+			case "add":
+				if (x != null && y != null) {
+					return number(x + y);
+				} else if (isNumber(x, 0)) {
+					return b;
+				} else if (isNumber(y, 0)) {
+					return a;
+				}
+				break;
+			case "sub":
+				if (x != null && y != null) {
+					return number(x - y);
+				} else if (isNumber(y, 0)) {
+					return a;
+				}
+				break;
+			case "mul":
+				if (x != null && y != null) {
+					return number(x * y);
+				} else if (isNumber(x, 1)) {
+					return b;
+				} else if (isNumber(y, 1)) {
+					return a;
+				}
+				break;
+			case "div":
+				// division by zero is left to fail when it is run
+				if (x != null && y != null && y != 0) {
+					return number(x / y);
+				} else if (isNumber(y, 1)) {
+					return a;
+				}
+				break;
+			}
+			return new EXPNode(n.operation, a, b);
+		} else if (node instanceof SENNode) {
+			SensorNode sensor = ((SENNode) node).sensor;
+			if (sensor instanceof BarrelLRNode && ((BarrelLRNode) sensor).index != null) {
+				return new EXPNode(new SENNode(new BarrelLRNode(expression(((BarrelLRNode) sensor).index))));
+			} else if (sensor instanceof BarrelFBNode && ((BarrelFBNode) sensor).index != null) {
+				return new EXPNode(new SENNode(new BarrelFBNode(expression(((BarrelFBNode) sensor).index))));
+			}
+		}
+		return new EXPNode(node);
+	}
+
+	private static EXPNode number(int n) {
+		return new EXPNode(new NUMNode(n));
+	}
+
+	private static boolean isNumber(Integer x, int n) {
+		return x != null && x == n;
+	}
+
+	/** The number an expression always is, or null if it depends on the robot */
+	private static Integer constant(SensorNode node) {
+		while (node instanceof EXPNode && ((EXPNode) node).operation == null) {
+			node = ((EXPNode) node).expr1;
+		}
+		return (node instanceof NUMNode) ? ((NUMNode) node).value : null;
+	}
+
+	public static void main(String[] args) {
+		int actions = 2000;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-actions") && i + 1 < args.length) {
+				actions = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		RoboGame.debugDisplay = false;
+		final Optimizer optimizer = new Optimizer();
+		boolean same = Harness.check(Harness.programs(files), actions, new Harness.Variant("optimized") {
+			@Override
+			RobotProgramNode make(RobotProgramNode tree) {
+				return optimizer.optimize(tree);
+			}
+
+			@Override
+			String report(RobotProgramNode tree, RobotProgramNode program, List<String> history, int actions) {
+				return String.format("  %5d of %5d nodes removed", optimizer.getRemoved(), ProgramTree.size(tree));
+			}
+		});
+		System.out.println(same ? "Optimized programs run the same" : "Optimized programs DIFFER");
+	}
+}
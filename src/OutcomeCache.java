@@ -0,0 +1,112 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The outcomes of headless matches, kept in a file so a tournament played
+ * again only plays the matches it hasn't before. A match is keyed by the
+ * SHA-256 of both programs' source, the seed, how many ticks it may last,
+ * the loop budget, what is done to a robot over it and
+ * Simulation.ENGINE_VERSION, so changing any of them plays it again.
+ *
+ * The file is a line "key TAB outcome" per match, only ever appended to,
+ * and read into a map when the cache is opened; the last line for a key
+ * wins, and a line cut short by a crash, without all four fields of an
+ * outcome, is skipped. The next outcome put then starts a new line, rather
+ * than finishing the cut one. Safe to use from several threads.
+ */
+class OutcomeCache {
+
+	private final Map<String, String> outcomes = new HashMap<String, String>();
+	private final Writer out;
+	private long hits, misses;
+
+	OutcomeCache(File file) throws IOException {
+		boolean cut = false;
+		if (file.exists()) {
+			byte[] data = Files.readAllBytes(file.toPath());
+			for (String line : new String(data, StandardCharsets.UTF_8).split("\n")) {
+				int tab = line.indexOf('\t');
+				if (tab > 0 && isOutcome(line.substring(tab + 1))) {
+					outcomes.put(line.substring(0, tab), line.substring(tab + 1));
+				}
+			}
+			cut = data.length > 0 && data[data.length - 1] != '\n';
+		}
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+		if (cut) {
+			out.write("\n");
+			out.flush();
+		}
+	}
+
+	/** Whether the text is a whole outcome: the winner, ticks and both robots' fuel */
+	private static boolean isOutcome(String outcome) {
+		String[] fields = outcome.split(",", -1);
+		if (fields.length != 4 || !(fields[0].equals("red") || fields[0].equals("blue") || fields[0].equals("draw"))) {
+			return false;
+		}
+		for (int i = 1; i < fields.length; i++) {
+			try {
+				Integer.parseInt(fields[i]);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** The key of a match between the programs with these hashes */
+	static String key(String red, String blue, long seed, int ticks) {
+		return red + ":" + blue + ":" + seed + ":" + ticks + ":" + Robot.LOOP_BUDGET + ":"
+				+ (Robot.CANCEL_OVER_BUDGET ? "cancel" : "wait") + ":" + Simulation.ENGINE_VERSION;
+	}
+
+	/** The outcome stored for the key, or null if the match hasn't been played */
+	synchronized String get(String key) {
+		String outcome = outcomes.get(key);
+		if (outcome == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return outcome;
+	}
+
+	/** Stores the outcome, which must be one line without tabs */
+	synchronized void put(String key, String outcome) throws IOException {
+		outcomes.put(key, outcome);
+		out.write(key + "\t" + outcome + "\n");
+		out.flush();
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized int size() {
+		return outcomes.size();
+	}
+
+	synchronized void close() throws IOException {
+		out.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return "outcomes=" + outcomes.size() + " hits=" + hits + " misses=" + misses + " hit rate="
+				+ (lookups == 0 ? "-" : String.format("%.1f%%", 100.0 * hits / lookups));
+	}
+}
@@ -0,0 +1,31 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class PROGNode implements RobotProgramNode {
+	final List<RobotProgramNode> children;
+	/** The slots of the variables in the children */
+	final Variables variables;
+
+	PROGNode(List<RobotProgramNode> children, Variables variables) {
+		this.children = Collections.unmodifiableList(new ArrayList<RobotProgramNode>(children));
+		this.variables = variables;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		for (RobotProgramNode r : children) {
+			r.execute(robot);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String s = "";
+		for (RobotProgramNode r : children) {
+			s += r.toString();
+		}
+		return s;
+	}
+
+}
@@ -1,7 +1,17 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.regex.*;
+import java.util.function.Consumer;
 import javax.swing.JFileChooser;
 
 /**
@@ -15,24 +25,26 @@ public class Parser {
 	 * Top level parse method, called by the World
 	 */
 	static RobotProgramNode parseFile(File code) {
-		Scanner scan = null;
 		try {
-			scan = new Scanner(code);
-
-			// the only time tokens can be next to each other is
-			// when one of them is one of (){},;
-			scan.useDelimiter("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
-
-			RobotProgramNode n = parseProgram(scan); // You need to implement this!!!
-
-			scan.close();
-			return n;
+			return parseSource(new Lexer(code));
 		} catch (FileNotFoundException e) {
 			System.out.println("Robot program source file not found");
+		} catch (IOException e) {
+			System.out.println("Unable to read robot program source file");
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a whole program, printing the parser error and returning null if
+	 * it is not valid.
+	 */
+	static RobotProgramNode parseSource(Lexer scan) {
+		try {
+			return parseProgram(scan);
 		} catch (ParserFailureException e) {
 			System.out.println("Parser error:");
 			System.out.println(e.getMessage());
-			scan.close();
 		}
 		return null;
 	}
@@ -40,6 +52,18 @@ public class Parser {
 	/** For testing the parser without requiring the world */
 
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("-batch")) {
+			CorpusValidator.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("-compile")) {
+			compile(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0 && args[0].equals("-stream")) {
+			stream(args.length > 1 ? args[1] : null);
+			return;
+		}
 		if (args.length > 0) {
 			for (String arg : args) {
 				File f = new File(arg);
@@ -74,274 +98,385 @@ public class Parser {
 		System.out.println("Done");
 	}
 
-	// Useful Patterns
+	// Productions are chosen with a single switch on the kind of the next
+	// token. Where several tokens start the same production they are grouped
+	// into these sets.
 
-	static Pattern NUMPAT = Pattern.compile("-?\\d+"); // ("-?(0|[1-9][0-9]*)");
-	static Pattern OPENPAREN = Pattern.compile("\\(");
-	static Pattern CLOSEPAREN = Pattern.compile("\\)");
-	static Pattern OPENBRACE = Pattern.compile("\\{");
-	static Pattern CLOSEBRACE = Pattern.compile("\\}");
+	static final EnumSet<Token> LOGIC = EnumSet.of(Token.AND, Token.OR, Token.NOT);
+	static final EnumSet<Token> OPS = EnumSet.of(Token.ADD, Token.SUB, Token.MUL, Token.DIV);
+	static final EnumSet<Token> ACTIONS = EnumSet.range(Token.MOVE, Token.WAIT);
+	static final EnumSet<Token> RELOPS = EnumSet.of(Token.LT, Token.GT, Token.EQ);
+	static final EnumSet<Token> SENSORS = EnumSet.range(Token.FUEL_LEFT, Token.WALL_DIST);
 
 	/**
-	 * PROG ::= STMT+
+	 * Converts each .prog file to the binary format of ProgramFormat, written
+	 * beside it as a .progb file, and checks that reading it back gives the
+	 * same program.
 	 */
-	static RobotProgramNode parseProgram(Scanner s) {
-		PROGNode ProgramNode = new PROGNode();
+	static void compile(String[] args) {
+		for (String arg : args) {
+			File f = new File(arg);
+			RobotProgramNode prog = parseFile(f);
+			if (prog == null) {
+				continue;
+			}
+			File out = new File(arg.endsWith(".prog") ? arg + "b" : arg + ".progb");
+			byte[] data = ProgramFormat.write(prog);
+			try {
+				Files.write(out.toPath(), data);
+				RobotProgramNode back = ProgramFormat.read(out);
+				if (!ProgramTree.sameTree(back, prog)) {
+					System.out.println("Round trip of '" + f + "' gave a different program");
+					continue;
+				}
+			} catch (IOException e) {
+				System.out.println("Can't write '" + out + "': " + e.getMessage());
+				continue;
+			}
+			System.out.println("Wrote '" + out + "' (" + data.length + " bytes from " + f.length() + ")");
+		}
+	}
 
-		while (s.hasNext()) {
-			ProgramNode.children.add(parseStatement(s));
+	/**
+	 * Parses a program read from the stream, in the platform charset, through
+	 * a fixed size buffer so the source text is never held in memory. Parser
+	 * failures carry the line and column they happened at.
+	 */
+	static RobotProgramNode parseStream(InputStream in) throws IOException {
+		return parseStream(new InputStreamReader(in, Charset.defaultCharset()));
+	}
+
+	static RobotProgramNode parseStream(ReadableByteChannel in) throws IOException {
+		return parseStream(Channels.newReader(in, Charset.defaultCharset().newDecoder(), -1));
+	}
+
+	private static RobotProgramNode parseStream(Reader in) throws IOException {
+		try {
+			return IterativeParser.parseProgram(new Lexer(in, Lexer.STREAM_BUFFER));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
-		return ProgramNode;
 	}
 
 	/**
-	 * STMT ::= ACT ";" | LOOP
+	 * Parses a program read from the stream, handing each top level statement
+	 * to the listener instead of building the whole program, so memory use
+	 * stays flat however long the stream is.
 	 */
-	static RobotProgramNode parseStatement(Scanner s) {
-		STMTNode StatementNode;
+	static void parseStream(InputStream in, Consumer<RobotProgramNode> statements) throws IOException {
+		Reader reader = new InputStreamReader(in, Charset.defaultCharset());
+		try {
+			IterativeParser.parseStatements(new Lexer(reader, Lexer.STREAM_BUFFER), statements);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
 
-		if (s.hasNext("loop")) {
-			StatementNode = new STMTNode(parseLoop(s));
-		} else if (s.hasNext("if")) {
-			StatementNode = new STMTNode(parseIf(s));
-		} else if (s.hasNext("while")) {
-			StatementNode = new STMTNode(parseWhile(s));
-		} else {
-			StatementNode = new STMTNode(parseAction(s));
-			require(";", "Missing ';'", s);
+	/**
+	 * Checks a program streamed from the file, or from standard input if file
+	 * is null, printing how much of it there was rather than the program.
+	 */
+	static void stream(String file) {
+		final long[] counts = new long[2];
+		try (InputStream in = (file == null) ? System.in : new FileInputStream(file)) {
+			parseStream(in, new Consumer<RobotProgramNode>() {
+				@Override
+				public void accept(RobotProgramNode statement) {
+					counts[0]++;
+					counts[1] += ProgramTree.size(statement);
+				}
+			});
+			System.out.println("Parsed " + counts[0] + " statements, " + counts[1] + " nodes");
+		} catch (ParserFailureException e) {
+			System.out.println("Parser error at line " + e.getLine() + ", column " + e.getColumn() + ":");
+			System.out.println(e.getMessage());
+		} catch (IOException e) {
+			System.out.println("Unable to read robot program: " + e.getMessage());
 		}
+	}
 
-		return StatementNode;
+	/**
+	 * PROG ::= STMT*
+	 */
+	static RobotProgramNode parseProgram(Lexer s) {
+		ArrayList<RobotProgramNode> children = new ArrayList<RobotProgramNode>();
 
+		while (s.hasNext()) {
+			children.add(parseStatement(s));
+		}
+		return new PROGNode(children, s.variables());
 	}
 
 	/**
-	 * ACT ::= "move" | "turnL" | "turnR" | "takeFuel" | "wait"
+	 * STMT ::= ACT ";" | LOOP | IF | WHILE | ASSGN ";"
 	 */
-	static RobotProgramNode parseAction(Scanner s) {
-		String next = s.next();
+	static RobotProgramNode parseStatement(Lexer s) {
+		switch (s.peek()) {
+		case LOOP:
+			return new STMTNode(parseLoop(s));
+		case IF:
+			return new STMTNode(parseIf(s));
+		case WHILE:
+			return new STMTNode(parseWhile(s));
+		case VAR: {
+			STMTNode StatementNode = new STMTNode(parseAssignment(s));
+			require(Token.SEMICOLON, "Missing ';'", s);
+			return StatementNode;
+		}
+		default: {
+			STMTNode StatementNode = new STMTNode(parseAction(s));
+			require(Token.SEMICOLON, "Missing ';'", s);
+			return StatementNode;
+		}
+		}
+	}
 
-		if (next.equals("move")) {
-			if (s.hasNext("(")) {
-				require(OPENPAREN, "Missing '('", s);
-				EXPNode param = (EXPNode) parseExpression(s);
-				require(CLOSEPAREN, "Missing ')'", s);
-				return new ACTNode(new MoveNode(param));
-			} else {
-				return new ACTNode(new MoveNode());
-			}
-		} else if (next.equals("wait")) {
-			if (s.hasNext("(")) {
-				require(OPENPAREN, "Missing '('", s);
-				EXPNode param = (EXPNode) parseExpression(s);
-				require(CLOSEPAREN, "Missing ')'", s);
-				return new ACTNode(new WaitNode(param));
-			} else {
-				return new ACTNode(new WaitNode());
-			}
+	/**
+	 * ACT ::= "move" [ "(" EXP ")" ] | "turnL" | "turnR" | "turnAround" |
+	 * "shieldOn" | "shieldOff" | "takeFuel" | "wait" [ "(" EXP ")" ]
+	 */
+	static RobotProgramNode parseAction(Lexer s) {
+		// checked before consuming it, so a failure points at the bad token
+		if (!ACTIONS.contains(s.peek())) {
+			fail("No actions can be found", s);
 		}
-		else if (next.equals("turnL")) {
+		switch (s.next()) {
+		case MOVE:
+			return new ACTNode(checkFor(Token.OPENPAREN, s) ? new MoveNode(parseArgument(s)) : new MoveNode());
+		case WAIT:
+			return new ACTNode(checkFor(Token.OPENPAREN, s) ? new WaitNode(parseArgument(s)) : new WaitNode());
+		case TURN_L:
 			return new ACTNode(new TurnLNode());
-		} else if (next.equals("turnR")) {
+		case TURN_R:
 			return new ACTNode(new TurnRNode());
-		} else if (next.equals("turnAround")) {
+		case TURN_AROUND:
 			return new ACTNode(new TurnAroundNode());
-		} else if (next.equals("shieldOn")) {
+		case SHIELD_ON:
 			return new ACTNode(new ShieldOnNode());
-		} else if (next.equals("shieldOff")) {
+		case SHIELD_OFF:
 			return new ACTNode(new ShieldOffNode());
-		} else if (next.equals("takeFuel")) {
+		case TAKE_FUEL:
 			return new ACTNode(new TakeFuelNode());
-		} else if (next.equals("wait")) {
-			return new ACTNode(new WaitNode());
-		} else {
-			fail("No actions can be found", s);
+		default:
+			// not reached, ACTIONS has every action
 			return null;
 		}
-
 	}
 
 	/**
-	 * LOOP ::= "loop" BLOCK
+	 * The EXP ")" of an argument list whose "(" has already been consumed
 	 */
-	static RobotProgramNode parseLoop(Scanner s) {
-		LOOPNode LoopNode;
+	static EXPNode parseArgument(Lexer s) {
+		EXPNode param = (EXPNode) parseExpression(s);
+		require(Token.CLOSEPAREN, "Missing ')'", s);
+		return param;
+	}
 
-		require("loop", "Missing 'loop'", s);
-		LoopNode = new LOOPNode(parseBlock(s));
+	/**
+	 * ASSGN ::= VAR "=" EXP
+	 */
+	static RobotProgramNode parseAssignment(Lexer s) {
+		VARNode var = parseVariable(s);
+		require(Token.ASSIGN, "Missing '='", s);
+		return new ASSGNNode(var, (EXPNode) parseExpression(s));
+	}
 
-		return LoopNode;
+	/**
+	 * LOOP ::= "loop" BLOCK
+	 */
+	static RobotProgramNode parseLoop(Lexer s) {
+		require(Token.LOOP, "Missing 'loop'", s);
+		return new LOOPNode(parseBlock(s));
 	}
 
 	/**
 	 * BLOCK ::= "{" STMT+ "}"
 	 */
-	static RobotProgramNode parseBlock(Scanner s) {
-		BLOCKNode BlockNode = new BLOCKNode();
-		require(OPENBRACE, "Missing '{'", s);
+	static RobotProgramNode parseBlock(Lexer s) {
+		ArrayList<RobotProgramNode> children = new ArrayList<RobotProgramNode>();
+		require(Token.OPENBRACE, "Missing '{'", s);
 
-		if (s.hasNext(CLOSEBRACE)) {
+		if (s.hasNext(Token.CLOSEBRACE)) {
 			fail("Cannot have empty block", s);
 		}
 
-		while (!s.hasNext("}")) {
-			BlockNode.children.add(parseStatement(s));
+		while (!s.hasNext(Token.CLOSEBRACE)) {
+			children.add(parseStatement(s));
 		}
 
-		require(CLOSEBRACE, "Missing '}'", s);
+		require(Token.CLOSEBRACE, "Missing '}'", s);
 
-		return BlockNode;
+		return new BLOCKNode(children);
 	}
 
-	static RobotProgramNode parseIf(Scanner s) {
-		require("if", "Missing 'if'", s);
-		require(OPENPAREN, "Missing '('", s);
-		CONDNode cond = (CONDNode) parseCondition(s);
-		require(CLOSEPAREN, "Missing ')'", s);
+	/**
+	 * IF ::= "if" "(" COND ")" BLOCK [ "elif" "(" COND ")" BLOCK ]* [ "else"
+	 * BLOCK ]
+	 */
+	static RobotProgramNode parseIf(Lexer s) {
+		require(Token.IF, "Missing 'if'", s);
+		CONDNode cond = parseGuard(s);
 		BLOCKNode block = (BLOCKNode) parseBlock(s);
-		if (s.hasNext("else")) {
-			return new IFNode(cond, block, (ELSENode) parseElse(s));
-		} else {		
+
+		ArrayList<ELIFNode> elifs = new ArrayList<ELIFNode>();
+		while (checkFor(Token.ELIF, s)) {
+			CONDNode elifCond = parseGuard(s);
+			elifs.add(new ELIFNode(elifCond, (BLOCKNode) parseBlock(s)));
+		}
+
+		if (s.hasNext(Token.ELSE)) {
+			return new IFNode(cond, block, elifs, (ELSENode) parseElse(s));
+		} else if (!elifs.isEmpty()) {
+			return new IFNode(cond, block, elifs, null);
+		} else {
 			return new IFNode(cond, block);
 		}
 	}
-	
-	static RobotProgramNode parseElse(Scanner s) {
-		require("else", "Missing 'else'", s);
-		require(OPENBRACE, "Missing '{'", s);
-		BLOCKNode block = (BLOCKNode) parseBlock(s);
-		require(CLOSEBRACE, "Missing '}'", s);
-		return new ELSENode(block);
+
+	static RobotProgramNode parseElse(Lexer s) {
+		require(Token.ELSE, "Missing 'else'", s);
+		return new ELSENode((BLOCKNode) parseBlock(s));
 	}
 
-	static RobotProgramNode parseWhile(Scanner s) {
-		require("while", "Missing 'while'", s);
-		require(OPENPAREN, "Missing '('", s);
-		CONDNode cond = (CONDNode) parseCondition(s);
-		require(CLOSEPAREN, "Missing ')'", s);
+	/**
+	 * WHILE ::= "while" "(" COND ")" BLOCK
+	 */
+	static RobotProgramNode parseWhile(Lexer s) {
+		require(Token.WHILE, "Missing 'while'", s);
+		CONDNode cond = parseGuard(s);
 		BLOCKNode block = (BLOCKNode) parseBlock(s);
 
 		return new WHILENode(cond, block);
+	}
 
+	/**
+	 * The "(" COND ")" of an if, elif or while
+	 */
+	static CONDNode parseGuard(Lexer s) {
+		require(Token.OPENPAREN, "Missing '('", s);
+		CONDNode cond = (CONDNode) parseCondition(s);
+		require(Token.CLOSEPAREN, "Missing ')'", s);
+		return cond;
 	}
 
-	static ConditionNode parseCondition(Scanner s) {
-		if (s.hasNext("and")) {
-			require("and", "Missing 'and'", s);
-			require(OPENPAREN, "Missing '('", s);
-			ConditionNode p1 = parseCondition(s);
-			require(",", "Missing ','", s);
-			ConditionNode p2 = parseCondition(s);
-			require(CLOSEPAREN, "Missing ')'", s);
-			return new CONDNode("and", p1, p2);
-		}
-		else if (s.hasNext("or")) {
-			require("or", "Missing 'or'", s);
-			require(OPENPAREN, "Missing '('", s);
-			ConditionNode p1 = parseCondition(s);
-			require(",", "Missing ','", s);
-			ConditionNode p2 = parseCondition(s);
-			require(CLOSEPAREN, "Missing ')'", s);
-			return new CONDNode("or", p1, p2);
-		}
-		else if (s.hasNext("not")) {
-			require("not", "Missing 'not'", s);
-			require(OPENPAREN, "Missing '('", s);
+	/**
+	 * COND ::= "and" "(" COND "," COND ")" | "or" "(" COND "," COND ")" | "not"
+	 * "(" COND ")" | RELOP "(" EXP "," EXP ")"
+	 */
+	static ConditionNode parseCondition(Lexer s) {
+		if (LOGIC.contains(s.peek())) {
+			Token next = s.next();
+			require(Token.OPENPAREN, "Missing '('", s);
 			ConditionNode p1 = parseCondition(s);
-			require(CLOSEPAREN, "Missing ')'", s);
-			return new CONDNode("not", p1, null);
-		}
-		else {
-			RELOPNode relop = (RELOPNode) parseRelop(s);
-			require(OPENPAREN, "Missing '('", s);
-			EXPNode expr1 = new EXPNode(parseExpression(s));
-			require(",", "Missing ','", s);
-			EXPNode expr2 = new EXPNode(parseExpression(s));
-			require(CLOSEPAREN, "Missing ')'", s);
-			return new CONDNode(relop, expr1, expr2);
+			ConditionNode p2 = null;
+			if (next != Token.NOT) {
+				require(Token.COMMA, "Missing ','", s);
+				p2 = parseCondition(s);
+			}
+			require(Token.CLOSEPAREN, "Missing ')'", s);
+			return new CONDNode(next.text, p1, p2);
 		}
 
+		RELOPNode relop = (RELOPNode) parseRelop(s);
+		require(Token.OPENPAREN, "Missing '('", s);
+		EXPNode expr1 = new EXPNode(parseExpression(s));
+		require(Token.COMMA, "Missing ','", s);
+		EXPNode expr2 = new EXPNode(parseExpression(s));
+		require(Token.CLOSEPAREN, "Missing ')'", s);
+		return new CONDNode(relop, expr1, expr2);
 	}
 
-	static SensorNode parseExpression(Scanner s) {
-		EXPNode exp;
-
-		if (s.hasNextInt()) {
-			exp = new EXPNode(parseNumber(s));
-		} 
-		else if (s.hasNext("add") || s.hasNext("sub") || s.hasNext("mul") || s.hasNext("div")) {
+	/**
+	 * EXP ::= NUM | SEN | VAR | OP "(" EXP "," EXP ")"
+	 */
+	static SensorNode parseExpression(Lexer s) {
+		if (OPS.contains(s.peek())) {
 			OPNode operation = (OPNode) parseOP(s);
-			require(OPENPAREN, "Missing '('", s);
+			require(Token.OPENPAREN, "Missing '('", s);
 			EXPNode e1 = (EXPNode) parseExpression(s);
-			require(",", "Missing ','", s);
+			require(Token.COMMA, "Missing ','", s);
 			EXPNode e2 = (EXPNode) parseExpression(s);
-			require(CLOSEPAREN, "Missing ')'", s);
+			require(Token.CLOSEPAREN, "Missing ')'", s);
 			return new EXPNode(operation, e1, e2);
 		}
-		else {
-			exp = new EXPNode(parseSensor(s));
-		}
 
-		return exp;
-	}
-	
-	static SensorNode parseOP(Scanner s) {
-		if (s.hasNext("add")) {
-			return new OPNode("add");
-		}
-		else if (s.hasNext("sub")) {
-			return new OPNode("sub");
+		switch (s.peek()) {
+		case NUM:
+			return new EXPNode(parseNumber(s));
+		case VAR:
+			return new EXPNode(parseVariable(s));
+		default:
+			return new EXPNode(parseSensor(s));
 		}
-		else if (s.hasNext("mul")) {
-			return new OPNode("mul");
-		}
-		else if (s.hasNext("div")) {
-			return new OPNode("div");
-		}
-		return null;
 	}
 
-	static ConditionNode parseRelop(Scanner s) {
-		String next = s.next();
+	/**
+	 * OP ::= "add" | "sub" | "mul" | "div"
+	 */
+	static SensorNode parseOP(Lexer s) {
+		return new OPNode(s.next().text);
+	}
 
-		if (next.equals("lt")) {
+	/**
+	 * RELOP ::= "lt" | "gt" | "eq"
+	 */
+	static ConditionNode parseRelop(Lexer s) {
+		if (!RELOPS.contains(s.peek())) {
+			fail("Unable to find RELOP", s);
+		}
+		switch (s.next()) {
+		case LT:
 			return new RELOPNode(new LTNode());
-		} else if (next.equals("gt")) {
+		case GT:
 			return new RELOPNode(new GTNode());
-		} else if (next.equals("eq")) {
+		case EQ:
 			return new RELOPNode(new EQNode());
-		} else {
-			fail("Unable to find RELOP", s);
+		default:
+			// not reached, RELOPS has every relation
 			return null;
 		}
 	}
 
-	static SensorNode parseSensor(Scanner s) {
-		String next = s.next();
-
-		if (next.equals("fuelLeft")) {
+	/**
+	 * SEN ::= "fuelLeft" | "oppLR" | "oppFB" | "numBarrels" | "barrelLR" [ "("
+	 * EXP ")" ] | "barrelFB" [ "(" EXP ")" ] | "wallDist"
+	 */
+	static SensorNode parseSensor(Lexer s) {
+		if (!SENSORS.contains(s.peek())) {
+			fail("Unable to find SEN", s);
+		}
+		switch (s.next()) {
+		case FUEL_LEFT:
 			return new SENNode(new FuelLeftNode());
-		} else if (next.equals("oppLR")) {
+		case OPP_LR:
 			return new SENNode(new OppLRNode());
-		} else if (next.equals("oppFB")) {
+		case OPP_FB:
 			return new SENNode(new OppFBNode());
-		} else if (next.equals("numBarrels")) {
+		case NUM_BARRELS:
 			return new SENNode(new NumBarrelsNode());
-		} else if (next.equals("barrelLR")) {
-			return new SENNode(new BarrelLRNode());
-		} else if (next.equals("barrelFB")) {
-			return new SENNode(new BarrelFBNode());
-		} else if (next.equals("wallDist")) {
+		case BARREL_LR:
+			return new SENNode(checkFor(Token.OPENPAREN, s) ? new BarrelLRNode(parseArgument(s)) : new BarrelLRNode());
+		case BARREL_FB:
+			return new SENNode(checkFor(Token.OPENPAREN, s) ? new BarrelFBNode(parseArgument(s)) : new BarrelFBNode());
+		case WALL_DIST:
 			return new SENNode(new WallDistNode());
-		} else {
-			fail("Unable to find SEN", s);
+		default:
+			// not reached, SENSORS has every sensor
 			return null;
 		}
+	}
 
+	static SensorNode parseNumber(Lexer s) {
+		return new NUMNode(requireInt("Unable to find number", s));
 	}
 
-	static SensorNode parseNumber(Scanner s) {
-		return new NUMNode(requireInt(NUMPAT, "Unable to find number", s));
+	/**
+	 * A variable, given its slot in the variables of the program the lexer
+	 * is reading.
+	 */
+	static VARNode parseVariable(Lexer s) {
+		String name = s.nextText();
+		return new VARNode(name, s.variables().slot(name));
 	}
 
 	// utility methods for the parser
@@ -349,62 +484,49 @@ public class Parser {
 	/**
 	 * Report a failure in the parser.
 	 */
-	static void fail(String message, Scanner s) {
+	static void fail(String message, Lexer s) {
+		int line = s.line(), column = s.column();
 		String msg = message + "\n   @ ...";
 		for (int i = 0; i < 5 && s.hasNext(); i++) {
-			msg += " " + s.next();
+			msg += " " + s.nextText();
 		}
-		throw new ParserFailureException(msg + "...");
+		throw new ParserFailureException(msg + "...", line, column);
 	}
 
 	/**
-	 * Requires that the next token matches a pattern if it matches, it consumes and
-	 * returns the token, if not, it throws an exception with an error message
+	 * Requires that the next token is of the given kind if it is, it consumes
+	 * it, if not, it throws an exception with an error message
 	 */
-	static String require(String p, String message, Scanner s) {
-		if (s.hasNext(p)) {
-			return s.next();
-		}
-		fail(message, s);
-		return null;
-	}
-
-	static String require(Pattern p, String message, Scanner s) {
-		if (s.hasNext(p)) {
-			return s.next();
+	static void require(Token t, String message, Lexer s) {
+		if (s.hasNext(t)) {
+			s.next();
+			return;
 		}
 		fail(message, s);
-		return null;
 	}
 
 	/**
-	 * Requires that the next token matches a pattern (which should only match a
-	 * number) if it matches, it consumes and returns the token as an integer if
-	 * not, it throws an exception with an error message
+	 * Requires that the next token is a number if it is, it consumes and
+	 * returns the token as an integer if not, it throws an exception with an
+	 * error message
 	 */
-	static int requireInt(String p, String message, Scanner s) {
-		if (s.hasNext(p) && s.hasNextInt()) {
-			return s.nextInt();
-		}
-		fail(message, s);
-		return -1;
-	}
-
-	static int requireInt(Pattern p, String message, Scanner s) {
-		if (s.hasNext(p) && s.hasNextInt()) {
-			return s.nextInt();
+	static int requireInt(String message, Lexer s) {
+		if (s.hasNext(Token.NUM)) {
+			int value = s.intValue();
+			s.next();
+			return value;
 		}
 		fail(message, s);
 		return -1;
 	}
 
 	/**
-	 * Checks whether the next token in the scanner matches the specified pattern,
-	 * if so, consumes the token and return true. Otherwise returns false without
-	 * consuming anything.
+	 * Checks whether the next token is of the given kind, if so, consumes the
+	 * token and return true. Otherwise returns false without consuming
+	 * anything.
 	 */
-	static boolean checkFor(String p, Scanner s) {
-		if (s.hasNext(p)) {
+	static boolean checkFor(Token t, Lexer s) {
+		if (s.hasNext(t)) {
 			s.next();
 			return true;
 		} else {
@@ -412,665 +534,11 @@ public class Parser {
 		}
 	}
 
-	static boolean checkFor(Pattern p, Scanner s) {
-		if (s.hasNext(p)) {
-			s.next();
-			return true;
-		} else {
-			return false;
-		}
-	}
-
-}
-
-// You could add the node classes here, as long as they are not declared public
-// (or private)
-
-class PROGNode implements RobotProgramNode {
-	ArrayList<RobotProgramNode> children = new ArrayList<RobotProgramNode>();
-
-	@Override
-	public void execute(Robot robot) {
-		for (RobotProgramNode r : children) {
-			r.execute(robot);
-		}
-	}
-
-	@Override
-	public String toString() {
-		String s = "";
-		for (RobotProgramNode r : children) {
-			s += r.toString();
-		}
-		return s;
-	}
-
-}
-
-class STMTNode implements RobotProgramNode {
-	final RobotProgramNode child;
-
-	STMTNode(RobotProgramNode child) {
-		this.child = child;
-	}
-
-	@Override
-	public void execute(Robot robot) {
-		child.execute(robot);
-	}
-
-	@Override
-	public String toString() {
-		return child.toString();
-	}
-
-}
-
-class ACTNode implements RobotProgramNode {
-	final RobotProgramNode child;
-
-	ACTNode(RobotProgramNode child) {
-		this.child = child;
-	}
-
-	@Override
-	public void execute(Robot robot) {
-		child.execute(robot);
-	}
-
-	@Override
-	public String toString() {
-		return child.toString();
-	}
-
-}
-
-class LOOPNode implements RobotProgramNode {
-	final BLOCKNode block;
-
-	LOOPNode(RobotProgramNode block) {
-		this.block = (BLOCKNode) block;
-	}
-
-	@Override
-	public void execute(Robot robot) {
-		block.execute(robot);
-	}
-
-	@Override
-	public String toString() {
-		return "\nloop{ \n" + this.block.toString() + "\n" + "}";
-	}
-
-}
-
-class BLOCKNode implements RobotProgramNode {
-	ArrayList<RobotProgramNode> children = new ArrayList<RobotProgramNode>();
-
-	@Override
-	public void execute(Robot robot) {
-		for (RobotProgramNode r : children) {
-			r.execute(robot);
-		}
-	}
-
-	@Override
-	public String toString() {
-		String s = "";
-		for (RobotProgramNode r : children) {
-			s += r.toString();
-		}
-		return s;
-	}
-
-}
-
-class IFNode implements RobotProgramNode {
-	final CONDNode Condition;
-	final BLOCKNode Block;
-	final ELSENode Else;
-	
-	IFNode(CONDNode cond, RobotProgramNode block) {
-		this.Condition = cond;
-		this.Block = (BLOCKNode) block;
-		this.Else = null;
-	}
-
-
-	IFNode(CONDNode cond, RobotProgramNode block, ELSENode Else) {
-		this.Condition = cond;
-		this.Block = (BLOCKNode) block;
-		this.Else = Else;
-	}
-
-	@Override
-	public void execute(Robot robot) {
-		if (Condition.evaluate(robot)) {
-			Block.execute(robot);
-			if (Else.Block != null) {
-				Else.execute(robot);
-			}
-		}
-	}
-
-	@Override
-	public String toString() {
-		return "if (" + Condition.toString() + ") " + "{\n\t" + Block.toString() + "\n} ";
-	}
-
-}
-
-class ELSENode implements RobotProgramNode {
-	final BLOCKNode Block;
-	
-	ELSENode(){
-		this.Block = null;
-	}
-	
-	ELSENode(BLOCKNode block){
-		this.Block = block;
-	}
-	
-	@Override
-	public void execute(Robot robot) {
-			Block.execute(robot);
-	}
-	
-	@Override
-	public String toString() {
-		return "else " + "{\n\t" + Block.toString() + "\n} ";
-	}
-	
-}
-
-class WHILENode implements RobotProgramNode {
-	final CONDNode Condition;
-	final BLOCKNode Block;
-
-	WHILENode(CONDNode Cond, RobotProgramNode Block) {
-		this.Condition = Cond;
-		this.Block = (BLOCKNode) Block;
-	}
-
-	@Override
-	public void execute(Robot robot) {
-		while (Condition.evaluate(robot)) {
-			Block.execute(robot);
-		}
-	}
-
-	@Override
-	public String toString() {
-		return "while (" + Condition.toString() + ") " + "{\n\t" + Block.toString() + "\n} ";
-	}
-
-}
-
-class CONDNode implements ConditionNode {
-	final RELOPNode Relop;
-	final EXPNode expr1;
-	final EXPNode expr2;
-	final String cond;
-	final ConditionNode condParam1;
-	final ConditionNode condParam2;
-	
-
-	CONDNode(ConditionNode rel, EXPNode e1, EXPNode e2) {
-		this.Relop = (RELOPNode) rel;
-		this.expr1 = e1;
-		this.expr2 = e2;
-		this.cond = null;
-		this.condParam1 = null;
-		this.condParam2 = null;
-	}
-	
-	CONDNode(String rel, ConditionNode e1, ConditionNode e2) {
-		this.Relop = null;
-		this.expr1 = null;
-		this.expr2 = null;
-		this.cond = rel;
-		this.condParam1 = e1;
-		this.condParam2 = e2;
-	}
-
-	@Override
-	public boolean evaluate(Robot robot) {
-		if (Relop.operation instanceof EQNode) {
-			if (expr1.evaluate(robot) == expr2.evaluate(robot)) {
-				return true;
-			}
-		} else if (Relop.operation instanceof GTNode) {
-			if (expr1.evaluate(robot) > expr2.evaluate(robot)) {
-				return true;
-			}
-		} else if (Relop.operation instanceof LTNode) {
-			if (expr1.evaluate(robot) < expr2.evaluate(robot)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	@Override
-	public String toString() {
-		return Relop.toString() + "(" + expr1.toString() + ", " + expr2.toString() + ")";
-	}
-
-}
-
-class RELOPNode implements ConditionNode {
-	final ConditionNode operation;
-
-	RELOPNode(ConditionNode op) {
-		this.operation = op;
-	}
-
-	@Override
-	public boolean evaluate(Robot robot) {
-		// TODO Auto-generated method stub
-		return false;
-	}
-
-	@Override
-	public String toString() {
-		return operation.toString();
-	}
-
-}
-
-class SENNode implements SensorNode {
-	final SensorNode sensor;
-
-	SENNode(SensorNode sensor) {
-		this.sensor = sensor;
-	}
-
-	@Override
-	public int evaluate(Robot robot) {
-		return sensor.evaluate(robot);
-	}
-
-	@Override
-	public String toString() {
-		return sensor.toString();
-	}
-
-}
-
-class EXPNode implements SensorNode {
-	final OPNode operation;
-	final SensorNode expr1;
-	final SensorNode expr2;
-
-	EXPNode(SensorNode e1) {
-		this.operation = null;
-		this.expr1 = e1;
-		this.expr2 = null;
-	}
-	
-	EXPNode(OPNode op, SensorNode e1, SensorNode e2){
-		this.operation = op;
-		this.expr1 = e1;
-		this.expr2 = e2;
-	}
-
-	@Override
-	public int evaluate(Robot robot) {
-		if (this.operation == null) {
-			return expr1.evaluate(robot);	
-		}
-		else {
-			if (operation.operation.toString().equals("add")) {
-				return expr1.evaluate(robot) + expr2.evaluate(robot);
-			}
-			else if (operation.operation.toString().equals("sub")) {
-				return expr1.evaluate(robot) - expr2.evaluate(robot);
-			}
-			else if (operation.operation.toString().equals("mul")) {
-				return expr1.evaluate(robot) * expr2.evaluate(robot);
-			}
-			else if (operation.operation.toString().equals("div")) {
-				return expr1.evaluate(robot) / expr2.evaluate(robot);
-			}
-			else {return -1;}
-		}
-	}
-
-	@Override
-	public String toString() {
-		
-		if (this.operation == null) {
-			return expr1.toString();
-		}
-		else {
-			if (operation.operation.toString().equals("add")) {
-				return "add (" + expr1.toString() + "," + expr2.toString() + ")";
-			}
-			else if (operation.operation.toString().equals("sub")) {
-				return "sub (" + expr1.toString() + "," + expr2.toString() + ")";
-			}
-			else if (operation.operation.toString().equals("mul")) {
-				return "mul (" + expr1.toString() + "," + expr2.toString() + ")";
-			}
-			else if (operation.operation.toString().equals("div")) {
-				return "div (" + expr1.toString() + "," + expr2.toString() + ")";
-			}
-			else {return null;}
-		}
-		
-	}
-
-}
-
-class NUMNode implements SensorNode {
-	final int value;
-
-	NUMNode(int val) {
-		this.value = val;
-	}
-
-	@Override
-	public int evaluate(Robot robot) {
-		return value;
-	}
-
-	@Override
-	public String toString() {
-		return "" + value;
-	}
-}
-
-class OPNode implements SensorNode {
-	final String operation;
-	
-	OPNode(String s){
-		this.operation = s;
-	}
-	
-	@Override
-	public int evaluate(Robot robot) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-	
-	@Override
-	public String toString() {
-		return this.operation;
-	}
-	
-}
-
-class LTNode implements ConditionNode {
-
-	@Override
-	public boolean evaluate(Robot robot) {
-		// TODO Auto-generated method stub
-		return false;
-	}
-
-	@Override
-	public String toString() {
-		return "lt";
-	}
-}
-
-class GTNode implements ConditionNode {
-
-	@Override
-	public boolean evaluate(Robot robot) {
-		// TODO Auto-generated method stub
-		return false;
-	}
-
-	@Override
-	public String toString() {
-		return "gt";
-	}
-}
-
-class EQNode implements ConditionNode {
-
-	@Override
-	public boolean evaluate(Robot robot) {
-		// TODO Auto-generated method stub
-		return false;
-	}
-
-	@Override
-	public String toString() {
-		return "eq";
-	}
-}
-
-class FuelLeftNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.getFuel();
-	}
-
-	@Override
-	public String toString() {
-		return "fuelLeft";
-	}
-}
-
-class OppLRNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.getOpponentLR();
-	}
-
-	@Override
-	public String toString() {
-		return "oppLR";
-	}
-}
-
-class OppFBNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.getOpponentFB();
-	}
-
-	@Override
-	public String toString() {
-		return "oppFB";
-	}
-}
-
-class NumBarrelsNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.numBarrels();
-	}
-
-	@Override
-	public String toString() {
-		return "numBarrels";
-	}
-}
-
-class BarrelLRNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.getClosestBarrelLR();
-	}
-
-	@Override
-	public String toString() {
-		return "barrelLR";
-	}
-}
-
-class BarrelFBNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.getClosestBarrelFB();
-	}
-
-	@Override
-	public String toString() {
-		return "barrelFB";
-	}
-}
-
-class WallDistNode implements SensorNode {
-
-	@Override
-	public int evaluate(Robot robot) {
-		return robot.getDistanceToWall();
-	}
-
-	@Override
-	public String toString() {
-		return "wallDist";
-	}
-}
-
-class MoveNode implements RobotProgramNode {
-	final EXPNode expr;
-
-	MoveNode() {
-		expr = null;
-	}
-
-	MoveNode(EXPNode expr) {
-		this.expr = expr;
-	}
-
-	@Override
-	public void execute(Robot robot) {
-		robot.move();
-
-	}
-
-	@Override
-	public String toString() {
-		return "move; ";
-	}
-
-}
-
-class TurnLNode implements RobotProgramNode {
-
-	@Override
-	public void execute(Robot robot) {
-		robot.turnLeft();
-
-	}
-
-	@Override
-	public String toString() {
-		return "turnL; ";
-
-	}
-
-}
-
-class TurnRNode implements RobotProgramNode {
-
-	@Override
-	public void execute(Robot robot) {
-		robot.turnRight();
-
-	}
-
-	@Override
-	public String toString() {
-		return "turnR; ";
-
-	}
-
-}
-
-class TurnAroundNode implements RobotProgramNode {
-
-	@Override
-	public void execute(Robot robot) {
-		robot.turnAround();
-
-	}
-
-	@Override
-	public String toString() {
-		return "turnAround; ";
-
-	}
 }
 
-class ShieldOnNode implements RobotProgramNode {
-
-	@Override
-	public void execute(Robot robot) {
-		robot.setShield(true);
-
-	}
-
-	@Override
-	public String toString() {
-		return "shieldOn; ";
-
-	}
-}
-
-class ShieldOffNode implements RobotProgramNode {
-
-	@Override
-	public void execute(Robot robot) {
-		robot.setShield(false);
-
-	}
-
-	@Override
-	public String toString() {
-		return "shieldOff; ";
-
-	}
-}
-
-class TakeFuelNode implements RobotProgramNode {
-
-	@Override
-	public void execute(Robot robot) {
-		robot.takeFuel();
-
-	}
-
-	@Override
-	public String toString() {
-		return "takeFuel; ";
-
-	}
-
-}
-
-class WaitNode implements RobotProgramNode {
-	final EXPNode expr;
-
-	WaitNode() {
-		expr = null;
-	}
-
-	WaitNode(EXPNode expr) {
-		this.expr = expr;
-	}
-	
-	@Override
-	public void execute(Robot robot) {
-		robot.idleWait();
-
-	}
-
-	@Override
-	public String toString() {
-		return "wait; ";
-
-	}
-
-}
+// The node classes are each in a file of their own, as the compilers, checks
+// and tools use them too, not only the parser.
+//
+// Parsed programs are cached and shared between robots and matches, so the
+// nodes are immutable once built: all fields are final and child lists are
+// unmodifiable copies. Any state while running lives in the Robot.
@@ -0,0 +1,268 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmarks the parser entry points from the command line. Run as
+ *
+ * <pre>
+ * java ParserBenchmark [-warmup ms] [-time ms] [-iterations n] [-sizes 1K,1M,100M] [-bench name,...] [file...]
+ * </pre>
+ *
+ * Every benchmark is run on every program given, by default each program in
+ * data/, and on synthetic programs of the given sizes. Each pair is warmed up
+ * and then timed over several iterations, and one line is printed with the
+ * throughput, the average time per parse, the bytes allocated per parse and
+ * the garbage collections during the timed iterations:
+ *
+ * <pre>
+ * Benchmark  Program         ops/s      us/op       B/op    gc   gc ms
+ * parseFile  s0_full.prog  215403.1      4.643       9584     2       1
+ * </pre>
+ *
+ * Allocation is measured with the per thread counter of the HotSpot thread
+ * bean, and shown as n/a on VMs without one.
+ */
+public class ParserBenchmark {
+
+	/** A way of parsing a program, timed by the benchmark */
+	private interface Benchmark {
+		String name();
+
+		/** Parses the program once, returning something for the sink */
+		int run(Program program) throws IOException;
+	}
+
+	/** A program to parse, both as a file and as characters in memory */
+	private static class Program {
+		final String name;
+		final File file;
+		final char[] source;
+
+		Program(String name, File file, char[] source) {
+			this.name = name;
+			this.file = file;
+			this.source = source;
+		}
+	}
+
+	private static final Benchmark[] BENCHMARKS = { new Benchmark() {
+		@Override
+		public String name() {
+			return "parseFile";
+		}
+
+		@Override
+		public int run(Program p) {
+			return Parser.parseFile(p.file) != null ? 1 : 0;
+		}
+	}, new Benchmark() {
+		@Override
+		public String name() {
+			return "recursive";
+		}
+
+		@Override
+		public int run(Program p) {
+			try {
+				return Parser.parseProgram(new Lexer(p.source)) != null ? 1 : 0;
+			} catch (ParserFailureException e) {
+				return 0;
+			}
+		}
+	}, new Benchmark() {
+		@Override
+		public String name() {
+			return "iterative";
+		}
+
+		@Override
+		public int run(Program p) {
+			try {
+				return IterativeParser.parseProgram(new Lexer(p.source)) != null ? 1 : 0;
+			} catch (ParserFailureException e) {
+				return 0;
+			}
+		}
+	}, new Benchmark() {
+		@Override
+		public String name() {
+			return "stream";
+		}
+
+		@Override
+		public int run(Program p) throws IOException {
+			try (InputStream in = new FileInputStream(p.file)) {
+				return Parser.parseStream(in) != null ? 1 : 0;
+			} catch (ParserFailureException e) {
+				return 0;
+			}
+		}
+	} };
+
+	private static final long SEED = 1;
+
+	private static long warmupMillis = 1000, timeMillis = 1000;
+	private static int iterations = 5;
+	private static long sink;
+
+	public static void main(String[] args) throws IOException {
+		List<String> sizes = Arrays.asList("1K", "1M", "100M");
+		List<String> only = null;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-warmup") && i + 1 < args.length) {
+				warmupMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-time") && i + 1 < args.length) {
+				timeMillis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-iterations") && i + 1 < args.length) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-sizes") && i + 1 < args.length) {
+				sizes = args[++i].isEmpty() ? new ArrayList<String>() : Arrays.asList(args[i].split(","));
+			} else if (args[i].equals("-bench") && i + 1 < args.length) {
+				only = Arrays.asList(args[++i].split(","));
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+		if (files.isEmpty()) {
+			File[] data = new File("data").listFiles(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.endsWith(".prog");
+				}
+			});
+			if (data != null) {
+				files.addAll(Arrays.asList(data));
+			}
+		}
+
+		List<Program> programs = new ArrayList<Program>();
+		files.sort(null);
+		for (File f : files) {
+			String src = new String(Files.readAllBytes(f.toPath()), Charset.defaultCharset());
+			programs.add(new Program(f.getName(), f, src.toCharArray()));
+		}
+		for (String size : sizes) {
+			programs.add(synthetic(size));
+		}
+
+		System.out.printf("%-10s %-16s %12s %12s %12s %5s %7s%n", "Benchmark", "Program", "ops/s", "us/op", "B/op",
+				"gc", "gc ms");
+		PrintStream out = System.out;
+		for (Benchmark b : BENCHMARKS) {
+			if (only != null && !only.contains(b.name())) {
+				continue;
+			}
+			for (Program p : programs) {
+				Result r;
+				// parseFile prints the errors of the bad programs
+				System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+				try {
+					r = measure(b, p);
+				} finally {
+					System.setOut(out);
+				}
+				System.out.printf("%-10s %-16s %12.1f %12.3f %12s %5d %7d%n", b.name(), p.name, r.opsPerSecond(),
+						r.microsPerOp(), r.bytesPerOp(), r.gcCount, r.gcMillis);
+			}
+		}
+		System.out.println(programs.size() + " programs (" + sink + ")");
+	}
+
+	/** What the timed iterations of one benchmark on one program added up to */
+	private static class Result {
+		long ops, nanos, allocated = -1, gcCount, gcMillis;
+
+		double opsPerSecond() {
+			return ops * 1e9 / nanos;
+		}
+
+		double microsPerOp() {
+			return nanos / 1e3 / ops;
+		}
+
+		String bytesPerOp() {
+			return (allocated < 0) ? "n/a" : Long.toString(allocated / ops);
+		}
+	}
+
+	private static Result measure(Benchmark b, Program p) throws IOException {
+		iteration(b, p, warmupMillis);
+		Result r = new Result();
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean hotspot = (threads instanceof com.sun.management.ThreadMXBean)
+				? (com.sun.management.ThreadMXBean) threads
+				: null;
+		long thread = Thread.currentThread().getId();
+		long bytes = (hotspot != null) ? hotspot.getThreadAllocatedBytes(thread) : -1;
+		long gcCount = gcCount(), gcMillis = gcMillis();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			r.ops += iteration(b, p, timeMillis);
+		}
+		r.nanos = System.nanoTime() - start;
+		if (bytes >= 0) {
+			r.allocated = hotspot.getThreadAllocatedBytes(thread) - bytes;
+		}
+		r.gcCount = gcCount() - gcCount;
+		r.gcMillis = gcMillis() - gcMillis;
+		return r;
+	}
+
+	/** Runs the benchmark for at least the given time, and at least once */
+	private static long iteration(Benchmark b, Program p, long millis) throws IOException {
+		long end = System.nanoTime() + millis * 1000000;
+		long ops = 0;
+		do {
+			sink += b.run(p);
+			ops++;
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, gc.getCollectionCount());
+		}
+		return n;
+	}
+
+	private static long gcMillis() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, gc.getCollectionTime());
+		}
+		return n;
+	}
+
+	/**
+	 * A valid program of about the given size, such as "1M", from the
+	 * generator with a fixed seed so every run times the same program. It is
+	 * written to a temporary file for the benchmarks that read files.
+	 */
+	private static Program synthetic(String size) throws IOException {
+		long chars = ProgramGenerator.parseSize(size);
+		String source = new ProgramGenerator(SEED).generate((int) Math.min(Integer.MAX_VALUE - 1024, chars));
+
+		File file = File.createTempFile("synthetic-" + size + "-", ".prog");
+		file.deleteOnExit();
+		try (Writer w = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset())) {
+			w.write(source);
+		}
+		return new Program("synthetic-" + size, file, source.toCharArray());
+	}
+}
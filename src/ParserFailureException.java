@@ -1,6 +1,26 @@
 @SuppressWarnings("serial")
 public class ParserFailureException extends RuntimeException {
+	private final int line, column;
+
 	public ParserFailureException(String msg) {
+		this(msg, 0, 0);
+	}
+
+	/**
+	 * A failure at the given line and column of the source, both counted from 1.
+	 */
+	public ParserFailureException(String msg, int line, int column) {
 		super(msg);
+		this.line = line;
+		this.column = column;
+	}
+
+	/** The line of the failure, 0 if it is not known */
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
 	}
 }
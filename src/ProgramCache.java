@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed programs, keyed by the SHA-256 of the source file
+ * contents, so loading the same program again (on every Reset, or for every
+ * match of a tournament) skips the parse. The least recently used program is
+ * evicted once the cache is full.
+ *
+ * Both source text and the binary format of ProgramFormat can be loaded.
+ *
+ * Each program is also kept as the robots run it, once runnable has made
+ * it, so loading it again skips optimizing and specializing (or compiling)
+ * as well as the parse.
+ *
+ * Safe to use from several threads. The cached trees are shared by everyone
+ * who loads the same source, which is fine because program nodes are
+ * immutable.
+ */
+class ProgramCache {
+
+	/** The size of the cache the World uses, set with -Drobot.programCache=n */
+	static final int DEFAULT_SIZE = Integer.getInteger("robot.programCache", 64);
+
+	private final int maxSize;
+	private final LinkedHashMap<String, RobotProgramNode> programs;
+	/** What World.runnable made of each cached program, by the parsed program */
+	private final Map<RobotProgramNode, RobotProgramNode> runnables =
+			new IdentityHashMap<RobotProgramNode, RobotProgramNode>();
+	private long hits, misses;
+
+	ProgramCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("cache size must be at least 1");
+		}
+		this.maxSize = maxSize;
+		// access order, so the eldest entry is the least recently used
+		this.programs = new LinkedHashMap<String, RobotProgramNode>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RobotProgramNode> eldest) {
+				if (size() > ProgramCache.this.maxSize) {
+					runnables.remove(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the parsed program in the file, parsing it only if no file with
+	 * the same contents has been loaded recently. Returns null, after printing
+	 * the reason, if the file can't be read or doesn't parse; those are not
+	 * cached.
+	 */
+	RobotProgramNode load(File code) {
+		byte[] source;
+		try {
+			source = Files.readAllBytes(code.toPath());
+		} catch (IOException e) {
+			// let the parser report it as it always has
+			return Parser.parseFile(code);
+		}
+		return load(source);
+	}
+
+	RobotProgramNode load(byte[] source) {
+		String key = hash(source);
+		synchronized (this) {
+			RobotProgramNode prog = programs.get(key);
+			if (prog != null) {
+				hits++;
+				return prog;
+			}
+			misses++;
+		}
+
+		// parse without holding the lock, so other programs can still be
+		// loaded meanwhile
+		RobotProgramNode prog = decode(source);
+		if (prog == null) {
+			return null;
+		}
+		synchronized (this) {
+			RobotProgramNode raced = programs.get(key);
+			if (raced != null) {
+				return raced;
+			}
+			programs.put(key, prog);
+		}
+		return prog;
+	}
+
+	/**
+	 * The program, as loaded from this cache, as the robots run it: made by
+	 * World.runnable the first time and kept for as long as the program is.
+	 * A program that isn't in the cache is made every time.
+	 */
+	RobotProgramNode runnable(RobotProgramNode prog) {
+		synchronized (this) {
+			RobotProgramNode runnable = runnables.get(prog);
+			if (runnable != null) {
+				return runnable;
+			}
+		}
+		RobotProgramNode runnable = World.runnable(prog);
+		synchronized (this) {
+			RobotProgramNode raced = runnables.get(prog);
+			if (raced != null) {
+				return raced;
+			}
+			// only kept while the program is, so it goes when the program is evicted
+			if (programs.containsValue(prog)) {
+				runnables.put(prog, runnable);
+			}
+		}
+		return runnable;
+	}
+
+	/**
+	 * Reads a program from either source text or the binary format written by
+	 * "java Parser -compile".
+	 */
+	static RobotProgramNode decode(byte[] source) {
+		if (ProgramFormat.isBinary(source)) {
+			try {
+				return ProgramFormat.read(ByteBuffer.wrap(source));
+			} catch (ParserFailureException e) {
+				System.out.println("Parser error:");
+				System.out.println(e.getMessage());
+				return null;
+			}
+		}
+		CharBuffer chars = Charset.defaultCharset().decode(ByteBuffer.wrap(source));
+		return Parser.parseSource(new Lexer(chars.array(), chars.limit()));
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized int size() {
+		return programs.size();
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	synchronized void clear() {
+		programs.clear();
+		runnables.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "programs=" + programs.size() + "/" + maxSize + " hits=" + hits + " misses=" + misses;
+	}
+
+	static String hash(byte[] source) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
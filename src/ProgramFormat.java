@@ -0,0 +1,611 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of parsed programs, so they can be loaded without
+ * parsing the source again.
+ *
+ * <pre>
+ * FILE    ::= "RBOT" version:varint STRINGS NODE
+ * STRINGS ::= count:varint ( length:varint utf8-bytes )*
+ * NODE    ::= tag:byte operands
+ * </pre>
+ *
+ * Nodes are written in pre-order, each as a tag byte followed by its operands
+ * and then its children. Numbers are zigzag varints, child and elif counts are
+ * varints, and variable names are varint indexes into the string table at the
+ * front. Reading is a single pass over a ByteBuffer, which may be memory
+ * mapped. Both ways keep their own stack instead of recursing, so programs
+ * nested as deeply as IterativeParser can parse can be written and read,
+ * and counts and lengths are checked against the bytes left so corrupt data
+ * fails with a ParserFailureException.
+ */
+class ProgramFormat {
+
+	static final byte[] MAGIC = { 'R', 'B', 'O', 'T' };
+	static final int VERSION = 1;
+
+	// node tags
+	static final int PROG = 1, BLOCK = 2, STMT = 3, ACT = 4, LOOP = 5, IF = 6, ELIF = 7, ELSE = 8, WHILE = 9,
+			ASSGN = 10;
+	static final int COND = 11, AND = 12, OR = 13, NOT = 14, RELOP = 15, LT = 16, GT = 17, EQ = 18;
+	static final int EXP = 19, EXP_OP = 20, SEN = 21, NUM = 22, VAR = 23, ADD = 24, SUB = 25, MUL = 26, DIV = 27;
+	static final int FUEL_LEFT = 28, OPP_LR = 29, OPP_FB = 30, NUM_BARRELS = 31, BARREL_LR = 32, BARREL_LR_AT = 33,
+			BARREL_FB = 34, BARREL_FB_AT = 35, WALL_DIST = 36;
+	static final int MOVE = 37, MOVE_N = 38, TURN_L = 39, TURN_R = 40, TURN_AROUND = 41, SHIELD_ON = 42,
+			SHIELD_OFF = 43, TAKE_FUEL = 44, WAIT = 45, WAIT_N = 46;
+
+	private static final String[] OP_NAMES = { "add", "sub", "mul", "div" };
+
+	/** Whether the bytes start like a program in this format */
+	static boolean isBinary(byte[] data) {
+		if (data.length < MAGIC.length) {
+			return false;
+		}
+		return Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC);
+	}
+
+	// =======================================================
+	// Writing
+	// =======================================================
+
+	static byte[] write(RobotProgramNode prog) {
+		Writer w = new Writer();
+		w.collectStrings(prog);
+		w.out.write(MAGIC, 0, MAGIC.length);
+		w.out.varint(VERSION);
+		w.out.varint(w.strings.size());
+		for (String s : w.strings.keySet()) {
+			byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+			w.out.varint(utf8.length);
+			w.out.write(utf8, 0, utf8.length);
+		}
+		w.node(prog);
+		return w.out.toByteArray();
+	}
+
+	private static class Writer {
+		final Bytes out = new Bytes();
+		final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+		/** Numbers every variable name, in the order the nodes are written */
+		void collectStrings(Object root) {
+			Deque<Object> stack = new ArrayDeque<Object>();
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				Object node = stack.pop();
+				if (node instanceof VARNode) {
+					String name = ((VARNode) node).name;
+					if (!strings.containsKey(name)) {
+						strings.put(name, strings.size());
+					}
+				}
+				List<Object> children = ProgramTree.children(node);
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+
+		/**
+		 * Writes the tree in pre-order. The stack holds what is still to be
+		 * written, nodes and the Integer counts and flags that go between
+		 * them, so trees of any depth can be written.
+		 */
+		void node(Object root) {
+			Deque<Object> stack = new ArrayDeque<Object>();
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				Object item = stack.pop();
+				if (item instanceof Integer) {
+					out.varint((Integer) item);
+					continue;
+				}
+				List<Object> next = new ArrayList<Object>(3);
+				write(item, next);
+				for (int i = next.size() - 1; i >= 0; i--) {
+					stack.push(next.get(i));
+				}
+			}
+		}
+
+		/**
+		 * Writes the node's tag and operands, and adds to next what comes
+		 * after them: its children, with any counts or flags between them.
+		 */
+		private void write(Object node, List<Object> next) {
+			if (node instanceof PROGNode) {
+				out.tag(PROG);
+				nodes(((PROGNode) node).children, next);
+			} else if (node instanceof BLOCKNode) {
+				out.tag(BLOCK);
+				nodes(((BLOCKNode) node).children, next);
+			} else if (node instanceof STMTNode) {
+				out.tag(STMT);
+				next.add(((STMTNode) node).child);
+			} else if (node instanceof ACTNode) {
+				out.tag(ACT);
+				next.add(((ACTNode) node).child);
+			} else if (node instanceof LOOPNode) {
+				out.tag(LOOP);
+				next.add(((LOOPNode) node).block);
+			} else if (node instanceof IFNode) {
+				IFNode n = (IFNode) node;
+				out.tag(IF);
+				next.add(n.Condition);
+				next.add(n.Block);
+				next.add(n.Elifs.size());
+				next.addAll(n.Elifs);
+				next.add(n.Else == null ? 0 : 1);
+				if (n.Else != null) {
+					next.add(n.Else);
+				}
+			} else if (node instanceof ELIFNode) {
+				out.tag(ELIF);
+				next.add(((ELIFNode) node).Condition);
+				next.add(((ELIFNode) node).Block);
+			} else if (node instanceof ELSENode) {
+				out.tag(ELSE);
+				next.add(((ELSENode) node).Block);
+			} else if (node instanceof WHILENode) {
+				out.tag(WHILE);
+				next.add(((WHILENode) node).Condition);
+				next.add(((WHILENode) node).Block);
+			} else if (node instanceof ASSGNNode) {
+				out.tag(ASSGN);
+				next.add(((ASSGNNode) node).var);
+				next.add(((ASSGNNode) node).expr);
+			} else if (node instanceof CONDNode) {
+				CONDNode n = (CONDNode) node;
+				if (n.cond == null) {
+					out.tag(COND);
+					next.add(n.Relop);
+					next.add(n.expr1);
+					next.add(n.expr2);
+				} else if (n.cond.equals("not")) {
+					out.tag(NOT);
+					next.add(n.condParam1);
+				} else {
+					out.tag(n.cond.equals("and") ? AND : OR);
+					next.add(n.condParam1);
+					next.add(n.condParam2);
+				}
+			} else if (node instanceof RELOPNode) {
+				out.tag(RELOP);
+				next.add(((RELOPNode) node).operation);
+			} else if (node instanceof LTNode) {
+				out.tag(LT);
+			} else if (node instanceof GTNode) {
+				out.tag(GT);
+			} else if (node instanceof EQNode) {
+				out.tag(EQ);
+			} else if (node instanceof EXPNode) {
+				EXPNode n = (EXPNode) node;
+				if (n.operation == null) {
+					out.tag(EXP);
+					next.add(n.expr1);
+				} else {
+					out.tag(EXP_OP);
+					next.add(n.operation);
+					next.add(n.expr1);
+					next.add(n.expr2);
+				}
+			} else if (node instanceof OPNode) {
+				out.tag(ADD + Arrays.asList(OP_NAMES).indexOf(((OPNode) node).operation));
+			} else if (node instanceof SENNode) {
+				out.tag(SEN);
+				next.add(((SENNode) node).sensor);
+			} else if (node instanceof NUMNode) {
+				out.tag(NUM);
+				out.zigzag(((NUMNode) node).value);
+			} else if (node instanceof VARNode) {
+				out.tag(VAR);
+				out.varint(strings.get(((VARNode) node).name));
+			} else if (node instanceof BarrelLRNode) {
+				indexed(((BarrelLRNode) node).index, BARREL_LR, BARREL_LR_AT, next);
+			} else if (node instanceof BarrelFBNode) {
+				indexed(((BarrelFBNode) node).index, BARREL_FB, BARREL_FB_AT, next);
+			} else if (node instanceof MoveNode) {
+				indexed(((MoveNode) node).expr, MOVE, MOVE_N, next);
+			} else if (node instanceof WaitNode) {
+				indexed(((WaitNode) node).expr, WAIT, WAIT_N, next);
+			} else {
+				out.tag(leafTag(node));
+			}
+		}
+
+		private void nodes(List<?> children, List<Object> next) {
+			out.varint(children.size());
+			next.addAll(children);
+		}
+
+		private void indexed(EXPNode arg, int plain, int withArg, List<Object> next) {
+			if (arg == null) {
+				out.tag(plain);
+			} else {
+				out.tag(withArg);
+				next.add(arg);
+			}
+		}
+
+		private static int leafTag(Object node) {
+			if (node instanceof FuelLeftNode) {
+				return FUEL_LEFT;
+			} else if (node instanceof OppLRNode) {
+				return OPP_LR;
+			} else if (node instanceof OppFBNode) {
+				return OPP_FB;
+			} else if (node instanceof NumBarrelsNode) {
+				return NUM_BARRELS;
+			} else if (node instanceof WallDistNode) {
+				return WALL_DIST;
+			} else if (node instanceof TurnLNode) {
+				return TURN_L;
+			} else if (node instanceof TurnRNode) {
+				return TURN_R;
+			} else if (node instanceof TurnAroundNode) {
+				return TURN_AROUND;
+			} else if (node instanceof ShieldOnNode) {
+				return SHIELD_ON;
+			} else if (node instanceof ShieldOffNode) {
+				return SHIELD_OFF;
+			} else if (node instanceof TakeFuelNode) {
+				return TAKE_FUEL;
+			}
+			throw new IllegalArgumentException("Can't encode node " + node.getClass().getName());
+		}
+	}
+
+	/** A growable byte array with varint writes */
+	private static class Bytes {
+		byte[] buf = new byte[256];
+		int size;
+
+		void tag(int tag) {
+			ensure(1);
+			buf[size++] = (byte) tag;
+		}
+
+		void varint(int v) {
+			ensure(5);
+			while ((v & ~0x7f) != 0) {
+				buf[size++] = (byte) ((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			buf[size++] = (byte) v;
+		}
+
+		void zigzag(int v) {
+			varint((v << 1) ^ (v >> 31));
+		}
+
+		void write(byte[] b, int off, int len) {
+			ensure(len);
+			System.arraycopy(b, off, buf, size, len);
+			size += len;
+		}
+
+		private void ensure(int n) {
+			if (size + n > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, size);
+		}
+	}
+
+	// =======================================================
+	// Reading
+	// =======================================================
+
+	/**
+	 * Maps the file into memory and reads the program from it.
+	 */
+	static RobotProgramNode read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads a program from the buffer's position onwards. Throws a
+	 * ParserFailureException if the data is not a program in this format.
+	 */
+	static RobotProgramNode read(ByteBuffer in) {
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new ParserFailureException("Not a binary robot program");
+			}
+			int version = varint(in);
+			if (version != VERSION) {
+				throw new ParserFailureException("Unsupported binary program version " + version);
+			}
+			String[] strings = new String[count(in)];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] utf8 = new byte[count(in)];
+				in.get(utf8);
+				strings[i] = new String(utf8, StandardCharsets.UTF_8);
+			}
+			return (RobotProgramNode) new Reader(in, strings).node();
+		} catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException e) {
+			throw new ParserFailureException("Corrupt binary program at byte " + in.position());
+		}
+	}
+
+	/**
+	 * Builds the tree back from its pre-order bytes. A node whose children
+	 * are still to be read is a Frame on a stack of its own rather than a
+	 * call, so trees of any depth can be read.
+	 */
+	private static class Reader {
+		final ByteBuffer in;
+		final String[] strings;
+		/** The variables given slots in the order they are read, as the parser does */
+		final Variables variables = new Variables();
+
+		/** A node read up to its children, waiting for the rest of them */
+		private static class Frame {
+			final int tag;
+			final List<Object> children = new ArrayList<Object>(3);
+			/** Children still to read before the node is complete, or before an if's next count */
+			int remaining;
+			/** For an if, 0 while reading its condition and block, 1 its elifs and 2 its else */
+			int stage;
+			int elifs;
+
+			Frame(int tag, int remaining) {
+				this.tag = tag;
+				this.remaining = remaining;
+			}
+		}
+
+		Reader(ByteBuffer in, String[] strings) {
+			this.in = in;
+			this.strings = strings;
+		}
+
+		Object node() {
+			ArrayDeque<Frame> stack = new ArrayDeque<Frame>();
+			while (true) {
+				int tag = in.get() & 0xff;
+				Object node = leaf(tag);
+				if (node == null) {
+					Frame f = new Frame(tag, arity(tag));
+					node = complete(f);
+					if (node == null) {
+						stack.push(f);
+						continue;
+					}
+				}
+				// hand the node to the frames it completes, and up to the first it doesn't
+				while (true) {
+					if (stack.isEmpty()) {
+						return node;
+					}
+					Frame parent = stack.peek();
+					parent.children.add(node);
+					parent.remaining--;
+					node = complete(parent);
+					if (node == null) {
+						break;
+					}
+					stack.pop();
+				}
+			}
+		}
+
+		/** The node for a tag without children, or null if the tag has them */
+		private Object leaf(int tag) {
+			switch (tag) {
+			case LT:
+				return new LTNode();
+			case GT:
+				return new GTNode();
+			case EQ:
+				return new EQNode();
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+				return new OPNode(OP_NAMES[tag - ADD]);
+			case NUM: {
+				int v = varint(in);
+				return new NUMNode((v >>> 1) ^ -(v & 1));
+			}
+			case VAR: {
+				String name = strings[varint(in)];
+				return new VARNode(name, variables.slot(name));
+			}
+			case FUEL_LEFT:
+				return new FuelLeftNode();
+			case OPP_LR:
+				return new OppLRNode();
+			case OPP_FB:
+				return new OppFBNode();
+			case NUM_BARRELS:
+				return new NumBarrelsNode();
+			case BARREL_LR:
+				return new BarrelLRNode();
+			case BARREL_FB:
+				return new BarrelFBNode();
+			case WALL_DIST:
+				return new WallDistNode();
+			case MOVE:
+				return new MoveNode();
+			case TURN_L:
+				return new TurnLNode();
+			case TURN_R:
+				return new TurnRNode();
+			case TURN_AROUND:
+				return new TurnAroundNode();
+			case SHIELD_ON:
+				return new ShieldOnNode();
+			case SHIELD_OFF:
+				return new ShieldOffNode();
+			case TAKE_FUEL:
+				return new TakeFuelNode();
+			case WAIT:
+				return new WaitNode();
+			default:
+				return null;
+			}
+		}
+
+		/** How many children follow the tag, reading the count of a PROG or BLOCK */
+		private int arity(int tag) {
+			switch (tag) {
+			case PROG:
+			case BLOCK:
+				return count(in);
+			case STMT:
+			case ACT:
+			case LOOP:
+			case ELSE:
+			case NOT:
+			case RELOP:
+			case EXP:
+			case SEN:
+			case BARREL_LR_AT:
+			case BARREL_FB_AT:
+			case MOVE_N:
+			case WAIT_N:
+				return 1;
+			case IF:
+			case ELIF:
+			case WHILE:
+			case ASSGN:
+			case AND:
+			case OR:
+				return 2;
+			case COND:
+			case EXP_OP:
+				return 3;
+			default:
+				throw new ParserFailureException("Unknown node tag " + tag + " at byte " + (in.position() - 1));
+			}
+		}
+
+		/**
+		 * The frame's node if all its children have been read, otherwise
+		 * null. An if reads the count of its elifs, and then whether it has
+		 * an else, once the children before them are read.
+		 */
+		private Object complete(Frame f) {
+			while (f.remaining == 0) {
+				if (f.tag != IF || f.stage == 2) {
+					return build(f.tag, f.children, f.elifs);
+				}
+				if (f.stage++ == 0) {
+					f.elifs = count(in);
+					f.remaining = f.elifs;
+				} else {
+					f.remaining = (varint(in) == 0) ? 0 : 1;
+				}
+			}
+			return null;
+		}
+
+		private Object build(int tag, List<Object> c, int elifs) {
+			switch (tag) {
+			case PROG:
+				return new PROGNode(statements(c), variables);
+			case BLOCK:
+				return new BLOCKNode(statements(c));
+			case STMT:
+				return new STMTNode((RobotProgramNode) c.get(0));
+			case ACT:
+				return new ACTNode((RobotProgramNode) c.get(0));
+			case LOOP:
+				return new LOOPNode((RobotProgramNode) c.get(0));
+			case IF: {
+				List<ELIFNode> elifNodes = new ArrayList<ELIFNode>(elifs);
+				for (int i = 0; i < elifs; i++) {
+					elifNodes.add((ELIFNode) c.get(2 + i));
+				}
+				ELSENode els = (c.size() > 2 + elifs) ? (ELSENode) c.get(2 + elifs) : null;
+				return new IFNode((CONDNode) c.get(0), (BLOCKNode) c.get(1), elifNodes, els);
+			}
+			case ELIF:
+				return new ELIFNode((CONDNode) c.get(0), (BLOCKNode) c.get(1));
+			case ELSE:
+				return new ELSENode((BLOCKNode) c.get(0));
+			case WHILE:
+				return new WHILENode((CONDNode) c.get(0), (RobotProgramNode) c.get(1));
+			case ASSGN:
+				return new ASSGNNode((VARNode) c.get(0), (EXPNode) c.get(1));
+			case COND:
+				return new CONDNode((RELOPNode) c.get(0), (EXPNode) c.get(1), (EXPNode) c.get(2));
+			case AND:
+				return new CONDNode("and", (ConditionNode) c.get(0), (ConditionNode) c.get(1));
+			case OR:
+				return new CONDNode("or", (ConditionNode) c.get(0), (ConditionNode) c.get(1));
+			case NOT:
+				return new CONDNode("not", (ConditionNode) c.get(0), null);
+			case RELOP:
+				return new RELOPNode((ConditionNode) c.get(0));
+			case EXP:
+				return new EXPNode((SensorNode) c.get(0));
+			case EXP_OP:
+				return new EXPNode((OPNode) c.get(0), (SensorNode) c.get(1), (SensorNode) c.get(2));
+			case SEN:
+				return new SENNode((SensorNode) c.get(0));
+			case BARREL_LR_AT:
+				return new BarrelLRNode((EXPNode) c.get(0));
+			case BARREL_FB_AT:
+				return new BarrelFBNode((EXPNode) c.get(0));
+			case MOVE_N:
+				return new MoveNode((EXPNode) c.get(0));
+			default:
+				return new WaitNode((EXPNode) c.get(0));
+			}
+		}
+
+		private static List<RobotProgramNode> statements(List<Object> c) {
+			List<RobotProgramNode> children = new ArrayList<RobotProgramNode>(c.size());
+			for (Object child : c) {
+				children.add((RobotProgramNode) child);
+			}
+			return children;
+		}
+	}
+
+	/**
+	 * A count or length, which can't be more than the bytes left as each
+	 * thing counted takes at least one.
+	 */
+	private static int count(ByteBuffer in) {
+		int n = varint(in);
+		if (n < 0 || n > in.remaining()) {
+			throw new ParserFailureException("Corrupt binary program, bad count " + n + " at byte " + in.position());
+		}
+		return n;
+	}
+
+	private static int varint(ByteBuffer in) {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			v |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new ParserFailureException("Varint too long at byte " + in.position());
+	}
+}
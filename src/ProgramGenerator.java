@@ -0,0 +1,404 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.SplittableRandom;
+
+/**
+ * Writes random robot programs for load and scaling tests, walking the
+ * grammar Parser accepts. The same seed and settings always give the same
+ * program. Run as
+ *
+ * <pre>
+ * java ProgramGenerator [-seed n] [-size 1M] [-depth n] [-width n] [-vars n] [-fault KIND] [-faultAt offset] [-out file]
+ * </pre>
+ *
+ * Depth bounds how deeply blocks, conditions and expressions nest, width how
+ * many statements a block can hold, and top level statements are written
+ * until the program reaches the size. Programs are valid unless a fault is
+ * asked for, in which case one statement holding that fault is written once
+ * the program has passed faultAt characters, and the parser should fail on
+ * it with the fault's message.
+ */
+class ProgramGenerator {
+
+	/** The errors that can be written into a program, and what Parser says about them */
+	enum Fault {
+		MISSING_SEMICOLON("Missing ';'"), MISSING_OPEN_PAREN("Missing '('"), MISSING_CLOSE_PAREN("Missing ')'"),
+		MISSING_COMMA("Missing ','"), MISSING_OPEN_BRACE("Missing '{'"), EMPTY_BLOCK("Cannot have empty block"),
+		MISSING_ASSIGN("Missing '='"), UNKNOWN_ACTION("No actions can be found"),
+		UNKNOWN_SENSOR("Unable to find SEN");
+
+		final String message;
+
+		Fault(String message) {
+			this.message = message;
+		}
+	}
+
+	private static final Token[] ACTIONS = { Token.MOVE, Token.TURN_L, Token.TURN_R, Token.TURN_AROUND,
+			Token.SHIELD_ON, Token.SHIELD_OFF, Token.TAKE_FUEL, Token.WAIT };
+	private static final Token[] SENSORS = { Token.FUEL_LEFT, Token.OPP_LR, Token.OPP_FB, Token.NUM_BARRELS,
+			Token.BARREL_LR, Token.BARREL_FB, Token.WALL_DIST };
+	private static final Token[] RELOPS = { Token.LT, Token.GT, Token.EQ };
+	private static final Token[] LOGIC = { Token.AND, Token.OR, Token.NOT };
+	private static final Token[] OPS = { Token.ADD, Token.SUB, Token.MUL, Token.DIV };
+
+	/** Characters to collect before handing them to the writer */
+	private static final int CHUNK = 1 << 16;
+
+	private final SplittableRandom random;
+	private int depth = 4;
+	private int width = 4;
+	private int variables = 4;
+	private Fault fault;
+	private long faultAt;
+
+	private StringBuilder sb;
+	private Writer out;
+	private long written;
+	private int line;
+	private int faultLine;
+
+	ProgramGenerator(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	/** How deeply blocks, conditions and expressions may nest, at least 0 */
+	ProgramGenerator depth(int depth) {
+		this.depth = Math.max(0, depth);
+		return this;
+	}
+
+	/** The most statements in one block, at least 1 */
+	ProgramGenerator width(int width) {
+		this.width = Math.max(1, width);
+		return this;
+	}
+
+	/** How many different variables to use, none if 0 */
+	ProgramGenerator variables(int variables) {
+		this.variables = Math.max(0, variables);
+		return this;
+	}
+
+	/**
+	 * Writes one statement with the fault once offset characters have been
+	 * written, or makes the programs valid again if fault is null.
+	 */
+	ProgramGenerator fault(Fault fault, long offset) {
+		this.fault = fault;
+		this.faultAt = Math.max(0, offset);
+		return this;
+	}
+
+	/** The line the fault was written on in the last program, 0 if none was */
+	int getFaultLine() {
+		return faultLine;
+	}
+
+	/**
+	 * Writes top level statements to out until at least size characters have
+	 * been written. Returns how many were.
+	 */
+	long generate(Writer out, long size) throws IOException {
+		this.out = out;
+		this.sb = new StringBuilder(CHUNK + 1024);
+		written = 0;
+		line = 1;
+		faultLine = 0;
+		boolean faulted = (fault == null);
+		while (written + sb.length() < size || !faulted) {
+			if (!faulted && written + sb.length() >= faultAt) {
+				faulted = true;
+				faulty(0);
+			} else {
+				statement(0);
+			}
+			if (sb.length() >= CHUNK) {
+				flush();
+			}
+		}
+		flush();
+		this.out = null;
+		this.sb = null;
+		return written;
+	}
+
+	String generate(int size) {
+		StringWriter w = new StringWriter(size + 256);
+		try {
+			generate(w, size);
+		} catch (IOException e) {
+			// a StringWriter never throws
+			throw new IllegalStateException(e);
+		}
+		return w.toString();
+	}
+
+	private void flush() throws IOException {
+		out.append(sb);
+		written += sb.length();
+		sb.setLength(0);
+	}
+
+	/**
+	 * STMT ::= ACT ";" | LOOP | IF | WHILE | ASSGN ";"
+	 */
+	private void statement(int level) {
+		int pick = (level >= depth) ? 0 : random.nextInt(20);
+		if (pick < 12) {
+			if (variables > 0 && random.nextInt(4) == 0) {
+				assignment(level);
+			} else {
+				action(level);
+			}
+			sb.append(";\n");
+			line++;
+		} else if (pick < 13) {
+			sb.append("loop ");
+			block(level);
+			newline();
+		} else if (pick < 17) {
+			sb.append("if (");
+			condition(level + 1);
+			sb.append(") ");
+			block(level);
+			int elifs = random.nextInt(3);
+			for (int i = 0; i < elifs; i++) {
+				sb.append(" elif (");
+				condition(level + 1);
+				sb.append(") ");
+				block(level);
+			}
+			if (random.nextBoolean()) {
+				sb.append(" else ");
+				block(level);
+			}
+			newline();
+		} else {
+			sb.append("while (");
+			condition(level + 1);
+			sb.append(") ");
+			block(level);
+			newline();
+		}
+	}
+
+	/**
+	 * BLOCK ::= "{" STMT+ "}", written over several lines
+	 */
+	private void block(int level) {
+		sb.append("{\n");
+		line++;
+		int n = 1 + random.nextInt(width);
+		for (int i = 0; i < n; i++) {
+			indent(level + 1);
+			statement(level + 1);
+		}
+		indent(level);
+		sb.append('}');
+	}
+
+	private void newline() {
+		sb.append('\n');
+		line++;
+	}
+
+	private void indent(int level) {
+		for (int i = 0; i < level; i++) {
+			sb.append('\t');
+		}
+	}
+
+	private void action(int level) {
+		Token t = ACTIONS[random.nextInt(ACTIONS.length)];
+		sb.append(t.text);
+		if ((t == Token.MOVE || t == Token.WAIT) && level < depth && random.nextBoolean()) {
+			sb.append('(');
+			expression(level + 1);
+			sb.append(')');
+		}
+	}
+
+	private void assignment(int level) {
+		variable();
+		sb.append(" = ");
+		expression(level + 1);
+	}
+
+	private void variable() {
+		sb.append("$v").append(random.nextInt(variables));
+	}
+
+	/**
+	 * COND ::= "and" "(" COND "," COND ")" | "or" "(" COND "," COND ")" | "not"
+	 * "(" COND ")" | RELOP "(" EXP "," EXP ")"
+	 */
+	private void condition(int level) {
+		if (level < depth && random.nextInt(3) == 0) {
+			Token t = LOGIC[random.nextInt(LOGIC.length)];
+			sb.append(t.text).append('(');
+			condition(level + 1);
+			if (t != Token.NOT) {
+				sb.append(", ");
+				condition(level + 1);
+			}
+			sb.append(')');
+			return;
+		}
+		sb.append(RELOPS[random.nextInt(RELOPS.length)].text).append('(');
+		expression(level + 1);
+		sb.append(", ");
+		expression(level + 1);
+		sb.append(')');
+	}
+
+	/**
+	 * EXP ::= NUM | SEN | VAR | OP "(" EXP "," EXP ")"
+	 */
+	private void expression(int level) {
+		int pick = random.nextInt(10);
+		if (level < depth && pick < 3) {
+			sb.append(OPS[random.nextInt(OPS.length)].text).append('(');
+			expression(level + 1);
+			sb.append(", ");
+			expression(level + 1);
+			sb.append(')');
+		} else if (pick < 6) {
+			sb.append(random.nextInt(-20, 100));
+		} else if (pick < 7 && variables > 0) {
+			variable();
+		} else {
+			Token t = SENSORS[random.nextInt(SENSORS.length)];
+			sb.append(t.text);
+			if ((t == Token.BARREL_LR || t == Token.BARREL_FB) && level < depth && random.nextBoolean()) {
+				sb.append('(');
+				expression(level + 1);
+				sb.append(')');
+			}
+		}
+	}
+
+	/** Writes a statement the parser fails on with the fault's message */
+	private void faulty(int level) {
+		faultLine = line;
+		switch (fault) {
+		case MISSING_SEMICOLON:
+			action(level);
+			break;
+		case MISSING_OPEN_PAREN:
+			sb.append("while ");
+			condition(level + 1);
+			sb.append(") { move; }");
+			break;
+		case MISSING_CLOSE_PAREN:
+			sb.append("if (");
+			condition(level + 1);
+			sb.append(" { move; }");
+			break;
+		case MISSING_COMMA:
+			sb.append("if (lt(");
+			expression(depth);
+			sb.append(' ');
+			expression(depth);
+			sb.append(")) { move; }");
+			break;
+		case MISSING_OPEN_BRACE:
+			sb.append("loop move; }");
+			break;
+		case EMPTY_BLOCK:
+			sb.append("loop { }");
+			break;
+		case MISSING_ASSIGN:
+			sb.append("$v0 ");
+			expression(level + 1);
+			sb.append(';');
+			break;
+		case UNKNOWN_ACTION:
+			sb.append("jump;");
+			break;
+		case UNKNOWN_SENSOR:
+			sb.append("$v0 = add(fuel, 1);");
+			break;
+		}
+		newline();
+	}
+
+	/**
+	 * Parses sizes such as "512", "1K", "1M" or "2G", in chars.
+	 */
+	static long parseSize(String size) {
+		String s = size.trim().toUpperCase();
+		long unit = 1;
+		if (s.endsWith("K")) {
+			unit = 1024;
+		} else if (s.endsWith("M")) {
+			unit = 1024 * 1024;
+		} else if (s.endsWith("G")) {
+			unit = 1024 * 1024 * 1024;
+		}
+		if (unit > 1) {
+			s = s.substring(0, s.length() - 1);
+		}
+		return Long.parseLong(s) * unit;
+	}
+
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		long size = 1024;
+		String file = null;
+		int depth = 4, width = 4, vars = 4;
+		Fault fault = null;
+		long faultAt = -1;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				String value = (i + 1 < args.length) ? args[++i] : null;
+				if (value == null) {
+					throw new IllegalArgumentException("no value for " + arg);
+				} else if (arg.equals("-seed")) {
+					seed = Long.parseLong(value);
+				} else if (arg.equals("-size")) {
+					size = parseSize(value);
+				} else if (arg.equals("-depth")) {
+					depth = Integer.parseInt(value);
+				} else if (arg.equals("-width")) {
+					width = Integer.parseInt(value);
+				} else if (arg.equals("-vars")) {
+					vars = Integer.parseInt(value);
+				} else if (arg.equals("-fault")) {
+					fault = Fault.valueOf(value.toUpperCase());
+				} else if (arg.equals("-faultAt")) {
+					faultAt = parseSize(value);
+				} else if (arg.equals("-out")) {
+					file = value;
+				} else {
+					throw new IllegalArgumentException("unknown option " + arg);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java ProgramGenerator [-seed n] [-size 1M] [-depth n] [-width n] [-vars n]"
+					+ " [-fault KIND] [-faultAt offset] [-out file]");
+			return;
+		}
+
+		ProgramGenerator g = new ProgramGenerator(seed).depth(depth).width(width).variables(vars);
+		if (fault != null) {
+			// somewhere in the program if no offset was given
+			g.fault(fault, faultAt >= 0 ? faultAt : new SplittableRandom(seed).nextLong(size));
+		}
+		OutputStream os = (file == null) ? System.out : new FileOutputStream(file);
+		try (Writer w = new BufferedWriter(new OutputStreamWriter(os, Charset.defaultCharset()), CHUNK)) {
+			long n = g.generate(w, size);
+			if (fault != null) {
+				System.err.println(n + " chars, " + fault + " on line " + g.getFaultLine() + ": " + fault.message);
+			}
+		}
+	}
+}
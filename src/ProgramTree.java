@@ -0,0 +1,148 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Generic walks over a parsed program. The node classes only know how to
+ * execute and print themselves, this knows what children each one has.
+ */
+class ProgramTree {
+
+	/**
+	 * The child nodes of a node, in source order.
+	 */
+	static List<Object> children(Object node) {
+		List<Object> c = new ArrayList<Object>(3);
+		if (node instanceof PROGNode) {
+			c.addAll(((PROGNode) node).children);
+		} else if (node instanceof BLOCKNode) {
+			c.addAll(((BLOCKNode) node).children);
+		} else if (node instanceof STMTNode) {
+			c.add(((STMTNode) node).child);
+		} else if (node instanceof ACTNode) {
+			c.add(((ACTNode) node).child);
+		} else if (node instanceof LOOPNode) {
+			c.add(((LOOPNode) node).block);
+		} else if (node instanceof IFNode) {
+			IFNode n = (IFNode) node;
+			c.add(n.Condition);
+			c.add(n.Block);
+			c.addAll(n.Elifs);
+			addIfPresent(c, n.Else);
+		} else if (node instanceof ELIFNode) {
+			c.add(((ELIFNode) node).Condition);
+			c.add(((ELIFNode) node).Block);
+		} else if (node instanceof ELSENode) {
+			addIfPresent(c, ((ELSENode) node).Block);
+		} else if (node instanceof WHILENode) {
+			c.add(((WHILENode) node).Condition);
+			c.add(((WHILENode) node).Block);
+		} else if (node instanceof CONDNode) {
+			CONDNode n = (CONDNode) node;
+			if (n.cond != null) {
+				c.add(n.condParam1);
+				addIfPresent(c, n.condParam2);
+			} else {
+				c.add(n.Relop);
+				c.add(n.expr1);
+				c.add(n.expr2);
+			}
+		} else if (node instanceof RELOPNode) {
+			c.add(((RELOPNode) node).operation);
+		} else if (node instanceof SENNode) {
+			c.add(((SENNode) node).sensor);
+		} else if (node instanceof EXPNode) {
+			EXPNode n = (EXPNode) node;
+			addIfPresent(c, n.operation);
+			c.add(n.expr1);
+			addIfPresent(c, n.expr2);
+		} else if (node instanceof ASSGNNode) {
+			c.add(((ASSGNNode) node).var);
+			c.add(((ASSGNNode) node).expr);
+		} else if (node instanceof BarrelLRNode) {
+			addIfPresent(c, ((BarrelLRNode) node).index);
+		} else if (node instanceof BarrelFBNode) {
+			addIfPresent(c, ((BarrelFBNode) node).index);
+		} else if (node instanceof MoveNode) {
+			addIfPresent(c, ((MoveNode) node).expr);
+		} else if (node instanceof WaitNode) {
+			addIfPresent(c, ((WaitNode) node).expr);
+		}
+		return c;
+	}
+
+	private static void addIfPresent(List<Object> c, Object node) {
+		if (node != null) {
+			c.add(node);
+		}
+	}
+
+	/**
+	 * Whether two trees have the same shape, node classes and values. Walks
+	 * both with an explicit stack, so trees of any depth can be compared.
+	 */
+	static boolean sameTree(Object a, Object b) {
+		Deque<Object> stack = new ArrayDeque<Object>();
+		stack.push(a);
+		stack.push(b);
+		while (!stack.isEmpty()) {
+			Object y = stack.pop();
+			Object x = stack.pop();
+			if (x == null || y == null) {
+				if (x != y) {
+					return false;
+				}
+				continue;
+			}
+			if (x.getClass() != y.getClass() || !sameValue(x, y)) {
+				return false;
+			}
+			List<Object> xs = children(x), ys = children(y);
+			if (xs.size() != ys.size()) {
+				return false;
+			}
+			for (int i = 0; i < xs.size(); i++) {
+				stack.push(xs.get(i));
+				stack.push(ys.get(i));
+			}
+		}
+		return true;
+	}
+
+	/** Compares what a node holds apart from its children */
+	private static boolean sameValue(Object x, Object y) {
+		if (x instanceof NUMNode) {
+			return ((NUMNode) x).value == ((NUMNode) y).value;
+		} else if (x instanceof VARNode) {
+			return ((VARNode) x).name.equals(((VARNode) y).name) && ((VARNode) x).slot == ((VARNode) y).slot;
+		} else if (x instanceof OPNode) {
+			return ((OPNode) x).operation.equals(((OPNode) y).operation);
+		} else if (x instanceof CONDNode) {
+			String cx = ((CONDNode) x).cond, cy = ((CONDNode) y).cond;
+			return (cx == null) ? cy == null : cx.equals(cy);
+		}
+		return true;
+	}
+
+	/**
+	 * The number of nodes in the tree under root, including root. Walks with
+	 * an explicit stack so any depth of nesting can be counted.
+	 */
+	static int size(Object root) {
+		if (root == null) {
+			return 0;
+		}
+		int count = 0;
+		Deque<Object> stack = new ArrayDeque<Object>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Object node = stack.pop();
+			count++;
+			for (Object child : children(node)) {
+				stack.push(child);
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,19 @@
+class RELOPNode implements ConditionNode {
+	final ConditionNode operation;
+
+	RELOPNode(ConditionNode op) {
+		this.operation = op;
+	}
+
+	@Override
+	public boolean evaluate(Robot robot) {
+		// TODO Auto-generated method stub
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return operation.toString();
+	}
+
+}
@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A binary log of the robots' states, written by Robot.readState in place of
+ * the text it prints and keeps. Each record is the tick, the robot, where it
+ * is, which way it faces, its fuel, whether its shield is on and the action
+ * it has just done (one of Robot's ACTION_ constants, or 0 for a shield
+ * change).
+ *
+ * The file starts with MAGIC and then has a record after another: a byte
+ * packing the robot (2 bits), shield (1), direction (2) and action (3), then
+ * as varints the ticks since the last record and, zigzag encoded, how much
+ * x, y and fuel have changed since that robot's last record. Most records
+ * take five bytes, where the text takes over forty. Records are put in a
+ * buffer that is written out through a FileChannel when it fills and on
+ * flush or close. Run as
+ *
+ * <pre>
+ * java ReplayLog [-robot n] [-ticks] file
+ * java ReplayLog -check [-actions n] [file...]
+ * </pre>
+ *
+ * to print a log in the text Robot.readState prints, optionally only one
+ * robot's and with each line led by the tick, robot and action, or to check on each
+ * program (by default those in data/) that a log decodes to the robot's
+ * history, and compare the sizes.
+ */
+class ReplayLog {
+
+	static final byte[] MAGIC = { 'R', 'P', 'L', 1 };
+	private static final int BUFFER = 64 * 1024;
+	/** The most bytes a record can take */
+	private static final int MAX_RECORD = 1 + 4 * 5;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+	private long tick;
+	/** x, y and fuel of each robot's last record, by robot */
+	private final int[][] last = new int[4][3];
+
+	/** A log written to the file, which is replaced if it is there */
+	ReplayLog(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.put(MAGIC);
+	}
+
+	/** Adds a record; the robot is 1 or 2, as in World */
+	synchronized void record(long tick, int robot, int x, int y, int dir, int fuel, boolean shield, int action) {
+		if (buffer.remaining() < MAX_RECORD) {
+			write();
+		}
+		buffer.put((byte) (robot << 6 | (shield ? 1 << 5 : 0) | dir << 3 | action));
+		varint(tick - this.tick);
+		this.tick = tick;
+		int[] l = last[robot];
+		varint(zigzag(x - l[0]));
+		varint(zigzag(y - l[1]));
+		varint(zigzag(fuel - l[2]));
+		l[0] = x;
+		l[1] = y;
+		l[2] = fuel;
+	}
+
+	private void varint(long v) {
+		while ((v & ~0x7fL) != 0) {
+			buffer.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	private static long zigzag(int v) {
+		return ((v << 1) ^ (v >> 31)) & 0xffffffffL;
+	}
+
+	/** Writes out what has been recorded so far */
+	synchronized void flush() {
+		write();
+	}
+
+	synchronized void close() throws IOException {
+		write();
+		channel.close();
+	}
+
+	private void write() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			// a replay isn't worth stopping the game for
+			e.printStackTrace();
+		}
+		buffer.clear();
+	}
+
+	/** Prints what Robot.readState would have for each record */
+	interface Printer {
+		void print(long tick, int robot, int action, String state);
+	}
+
+	/**
+	 * Decodes a log, giving each record to the printer in the text
+	 * Robot.readState prints.
+	 */
+	static void decode(File file, Printer printer) throws IOException {
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = ByteBuffer.allocate((int) channel.size());
+			while (in.hasRemaining() && channel.read(in) >= 0) {
+				// read the rest
+			}
+		}
+		in.flip();
+		byte[] magic = new byte[MAGIC.length];
+		if (in.remaining() >= magic.length) {
+			in.get(magic);
+		}
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException(file + " is not a replay log");
+		}
+		String[] dirs = new String[4];
+		for (Robot.DIRECTION d : Robot.DIRECTION.values()) {
+			dirs[d.ordinal()] = d.toString();
+		}
+		long tick = 0;
+		int[][] last = new int[4][3];
+		while (in.hasRemaining()) {
+			int head = in.get() & 0xff;
+			int robot = head >> 6;
+			boolean shield = (head & 1 << 5) != 0;
+			int dir = (head >> 3) & 3;
+			tick += readVarint(in);
+			int[] l = last[robot];
+			l[0] += unzigzag(readVarint(in));
+			l[1] += unzigzag(readVarint(in));
+			l[2] += unzigzag(readVarint(in));
+			printer.print(tick, robot, head & 7,
+					"x=" + l[0] + " y=" + l[1] + " dir=" + dirs[dir] + " fuel=" + l[2] + " shield=" + shield);
+		}
+	}
+
+	private static long readVarint(ByteBuffer in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!in.hasRemaining()) {
+				throw new IOException("replay log cut short");
+			}
+			byte b = in.get();
+			v |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new IOException("bad varint in replay log");
+	}
+
+	private static int unzigzag(long v) {
+		int i = (int) v;
+		return (i >>> 1) ^ -(i & 1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int robot = 0, actions = 2000;
+		boolean ticks = false, check = false;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-robot") && i + 1 < args.length) {
+				robot = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-actions") && i + 1 < args.length) {
+				actions = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-ticks")) {
+				ticks = true;
+			} else if (args[i].equals("-check")) {
+				check = true;
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		if (!check) {
+			if (files.size() != 1) {
+				System.err.println("usage: java ReplayLog [-robot n] [-ticks] file");
+				return;
+			}
+			final int only = robot;
+			final boolean withTicks = ticks;
+			decode(files.get(0), new Printer() {
+				@Override
+				public void print(long tick, int robot, int action, String state) {
+					if (only == 0 || robot == only) {
+						System.out.println(withTicks ? tick + " " + robot + " " + action + " " + state : state);
+					}
+				}
+			});
+			return;
+		}
+
+		RoboGame.debugDisplay = false;
+		File log = File.createTempFile("replay", ".log");
+		log.deleteOnExit();
+		boolean same = true;
+		for (File file : Harness.programs(files)) {
+			RobotProgramNode tree = Harness.parse(file);
+			if (tree == null) {
+				continue;
+			}
+			Robot r = Harness.robot(tree, actions);
+			ReplayLog replay = new ReplayLog(log);
+			r.setReplay(replay, 1);
+			Harness.quiet();
+			try {
+				r.run();
+			} catch (RuntimeException e) {
+				// cancelled, or the program failed
+			} finally {
+				Harness.loud();
+			}
+			replay.close();
+
+			final List<String> decoded = new ArrayList<String>();
+			decode(log, new Printer() {
+				@Override
+				public void print(long tick, int robot, int action, String state) {
+					decoded.add(state);
+				}
+			});
+			long text = 0;
+			for (String state : r.getHistory()) {
+				text += state.length() + 1;
+			}
+			if (decoded.equals(r.getHistory())) {
+				System.out.printf("%-16s same %5d states  %7d bytes as text  %6d in the log%n", file.getName(),
+						decoded.size(), text, Files.size(log.toPath()));
+			} else {
+				same = false;
+				System.out.println(file.getName() + " decodes differently");
+			}
+		}
+		System.out.println(same ? "Replay logs decode to the histories" : "Replay logs DIFFER");
+	}
+}
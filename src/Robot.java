@@ -8,9 +8,14 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.imageio.ImageIO;
 
@@ -130,6 +135,8 @@ public class Robot {
 	 * cannot steal fuel, but this robot will use up fuel faster.
 	 */
 	public void setShield(boolean shield) {
+		if (cancelled)
+			throw new RobotInterruptedException();
 		debug("shield " + (shield ? "on" : "off"));
 		this.shield = shield;
 		readState();
@@ -167,17 +174,8 @@ public class Robot {
 	public int getDistanceToWall() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		switch (dir) {
-		case NORTH:
-			return y;
-		case SOUTH:
-			return 11 - y;
-		case WEST:
-			return x;
-		case EAST:
-			return 11 - x;
-		}
-		return 0;
+		snapshot.reads++;
+		return snapshot.wallDist;
 	}
 
 	/**
@@ -190,13 +188,10 @@ public class Robot {
 	public int getOpponentLR() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		if (otherRobotPos == null) {
-			debug("oppLR=INFINTY");
-			return INFINITY;
-		} else {
-			debug("oppLR=" + otherRobotPos.x);
-			return otherRobotPos.x;
-		}
+		snapshot.reads++;
+		if (debugging())
+			debug("oppLR=" + (otherRobotPos == null ? "INFINTY" : "" + snapshot.oppLR));
+		return snapshot.oppLR;
 	}
 
 	/**
@@ -209,13 +204,10 @@ public class Robot {
 	public int getOpponentFB() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		if (otherRobotPos == null) {
-			debug("oppFB=INFINTY");
-			return INFINITY;
-		} else {
-			debug("oppFB=" + otherRobotPos.y);
-			return otherRobotPos.y;
-		}
+		snapshot.reads++;
+		if (debugging())
+			debug("oppFB=" + (otherRobotPos == null ? "INFINTY" : "" + snapshot.oppFB));
+		return snapshot.oppFB;
 	}
 
 	/**
@@ -224,8 +216,10 @@ public class Robot {
 	public int numBarrels() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		debug("numBarrels = " + barrels.size());
-		return barrels.size();
+		snapshot.reads++;
+		if (debugging())
+			debug("numBarrels = " + snapshot.numBarrels);
+		return snapshot.numBarrels;
 	}
 
 	/**
@@ -264,8 +258,15 @@ public class Robot {
 	public int getBarrelLR(int n) {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).x;
-		debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+		int val;
+		if (n >= 0 && n < Snapshot.BARRELS) {
+			snapshot.reads++;
+			val = snapshot.barrels[2 * n];
+		} else {
+			val = (n >= barrels.size()) ? INFINITY : barrels.get(n).x;
+		}
+		if (debugging())
+			debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
 		return val;
 	}
 
@@ -279,8 +280,15 @@ public class Robot {
 	public int getBarrelFB(int n) {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).y;
-		debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+		int val;
+		if (n >= 0 && n < Snapshot.BARRELS) {
+			snapshot.reads++;
+			val = snapshot.barrels[2 * n + 1];
+		} else {
+			val = (n >= barrels.size()) ? INFINITY : barrels.get(n).y;
+		}
+		if (debugging())
+			debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
 		return val;
 	}
 
@@ -292,8 +300,103 @@ public class Robot {
 	public int getFuel() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		debug("fuel=" + fuel);
-		return fuel;
+		snapshot.reads++;
+		if (debugging())
+			debug("fuel=" + snapshot.fuel);
+		return snapshot.fuel;
+	}
+
+	// Program Variables
+	// -----------------
+
+	/**
+	 * Gets the value of one of the program's $variables, 0 if it has never
+	 * been assigned.
+	 */
+	public int getVariable(String name) {
+		int slot = slots.find(name);
+		return (slot < 0) ? 0 : getVariable(slot);
+	}
+
+	/**
+	 * Gets the value of the $variable in the slot, 0 if it has never been
+	 * assigned.
+	 */
+	public int getVariable(int slot) {
+		if (cancelled)
+			throw new RobotInterruptedException();
+		return (slot < variables.length) ? variables[slot] : 0;
+	}
+
+	/**
+	 * Sets the value of one of the program's $variables.
+	 */
+	public void setVariable(String name, int value) {
+		int slot = slots.find(name);
+		if (slot < 0) {
+			// not one of the program's, so given a slot in a table of the robot's own
+			slots = slots.copy();
+			slot = slots.slot(name);
+		}
+		setVariable(slot, value);
+	}
+
+	/**
+	 * Sets the value of the $variable in the slot.
+	 */
+	public void setVariable(int slot, int value) {
+		if (cancelled)
+			throw new RobotInterruptedException();
+		if (debugging())
+			debug(slots.name(slot) + " = " + value);
+		if (slot >= variables.length) {
+			variables = Arrays.copyOf(variables, Math.max(slot + 1, 2 * variables.length));
+		}
+		variables[slot] = value;
+	}
+
+	// Spinning
+	// --------
+
+	/**
+	 * Called by the interpreters each time round a loop. A program that goes
+	 * round more than the loop budget without doing an action is spinning, and
+	 * is made to wait a turn, or with -Drobot.overBudget=cancel is cancelled,
+	 * so it gives up its thread.
+	 */
+	public void loop() {
+		if (++loops > loopBudget) {
+			overBudget();
+		}
+	}
+
+	private void overBudget() {
+		loops = 0;
+		overBudget++;
+		OVER_BUDGET.incrementAndGet();
+		if (CANCEL_OVER_BUDGET) {
+			cancel();
+			throw new RobotInterruptedException();
+		}
+		idleWait();
+	}
+
+	/**
+	 * Sets how many times round its loops this robot's program may go between
+	 * two actions.
+	 */
+	void setLoopBudget(int budget) {
+		this.loopBudget = Math.max(1, budget);
+	}
+
+	/** How many times this robot has gone over its loop budget */
+	int getOverBudget() {
+		return overBudget;
+	}
+
+	/** How many times any robot has gone over its loop budget */
+	static long getTotalOverBudget() {
+		return OVER_BUDGET.get();
 	}
 
 	/**
@@ -319,22 +422,45 @@ public class Robot {
 	private static final int
 	    FUEL_IDLE = 3, FUEL_MOVE = 6, FUEL_TURN = 5, FUEL_SHIELD = 15;
 
-        private enum DIRECTION { NORTH, WEST, SOUTH, EAST }
+        enum DIRECTION { NORTH, WEST, SOUTH, EAST }
 
         private World world;
 	private Point otherRobotPos;
 	private List<Point> barrels = new ArrayList<Point>();
 	private RobotProgramNode program;
+	/** The $variables by slot, those past the end are 0 */
+	private int[] variables = new int[0];
+	/** The program's table of which variable is in which slot */
+	private Variables slots = new Variables();
 
 	private boolean shield, dead, finished, cancelled;
 	private int fuel = 100, targetFuel;
 	private int x, y, targetX, targetY;
         private DIRECTION dir, targetDir;
     //	private int x, y, dir, targetX, targetY, targetDir;
-	private int currentAction;
+	/**
+	 * Set by the robot's thread when it starts an action and cleared by the
+	 * world's in updatePending; volatile so what updatePending wrote before
+	 * clearing it is seen by the robot once it has.
+	 */
+	private volatile int currentAction;
+	/** The robot's thread while it is parked waiting for updatePending */
+	private volatile Thread waiting;
 	private String colour;
 	private BufferedImage robotImage1, robotImage2, shieldImage;
 	private boolean noWait = false;
+	private final Snapshot snapshot = new Snapshot();
+
+	/** Loops allowed between two actions, set with -Drobot.loopBudget=n */
+	static final int LOOP_BUDGET = Integer.getInteger("robot.loopBudget", 100000);
+	static final boolean CANCEL_OVER_BUDGET = "cancel".equals(System.getProperty("robot.overBudget"));
+	private static final AtomicLong OVER_BUDGET = new AtomicLong();
+	private int loopBudget = LOOP_BUDGET;
+	private int loops, overBudget;
+	private boolean stepped, statePending;
+	private boolean printing = true, keepingHistory = true;
+	private ReplayLog replay;
+	private int replayId, lastAction;
 
 	public Robot(World world, int x, int y, String colour, boolean noWait) {
 		this.world = world;
@@ -347,12 +473,79 @@ public class Robot {
 		dir = (y < World.SIZE / 2) ? DIRECTION.SOUTH : DIRECTION.NORTH;
 		targetDir = dir;
 		targetFuel = fuel;
-		try {
-			robotImage1 = ImageIO.read(new File("assets/robot_" + colour + "_1.png"));
-			robotImage2 = ImageIO.read(new File("assets/robot_" + colour + "_2.png"));
-			shieldImage = ImageIO.read(new File("assets/shield.png"));
-		} catch (IOException e) {
-			e.printStackTrace();
+		robotImage1 = image("assets/robot_" + colour + "_1.png");
+		robotImage2 = image("assets/robot_" + colour + "_2.png");
+		shieldImage = image("assets/shield.png");
+		takeSnapshot();
+	}
+
+	/** Images are only ever drawn, so each is read once and shared */
+	private static final Map<String, BufferedImage> IMAGES = new ConcurrentHashMap<String, BufferedImage>();
+
+	private static BufferedImage image(String file) {
+		BufferedImage image = IMAGES.get(file);
+		if (image == null) {
+			try {
+				image = ImageIO.read(new File(file));
+				if (image != null) {
+					IMAGES.put(file, image);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * What the sensors read, worked out once a tick. Nothing they depend on
+	 * changes between calls to updatePending, so the sensors read these
+	 * fields instead of working it out on every call.
+	 */
+	static final class Snapshot {
+		/** How many of the closest barrels are kept */
+		static final int BARRELS = 4;
+
+		/** Counts the calls to updatePending */
+		long tick;
+		int fuel, wallDist, oppLR, oppFB, numBarrels;
+		/** Left-right then front-back of the closest barrels, INFINITY past the last */
+		final int[] barrels = new int[2 * BARRELS];
+		/** How many sensor reads have been answered from the snapshot, over all ticks */
+		long reads;
+	}
+
+	/**
+	 * The sensor readings for this tick.
+	 */
+	Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	private void takeSnapshot() {
+		snapshot.tick++;
+		snapshot.fuel = fuel;
+		switch (dir) {
+		case NORTH:
+			snapshot.wallDist = y;
+			break;
+		case SOUTH:
+			snapshot.wallDist = 11 - y;
+			break;
+		case WEST:
+			snapshot.wallDist = x;
+			break;
+		case EAST:
+			snapshot.wallDist = 11 - x;
+			break;
+		}
+		snapshot.oppLR = (otherRobotPos == null) ? INFINITY : otherRobotPos.x;
+		snapshot.oppFB = (otherRobotPos == null) ? INFINITY : otherRobotPos.y;
+		snapshot.numBarrels = barrels.size();
+		for (int i = 0; i < Snapshot.BARRELS; i++) {
+			Point p = (i < barrels.size()) ? barrels.get(i) : null;
+			snapshot.barrels[2 * i] = (p == null) ? INFINITY : p.x;
+			snapshot.barrels[2 * i + 1] = (p == null) ? INFINITY : p.y;
 		}
 	}
 
@@ -362,9 +555,85 @@ public class Robot {
 	 * Encodes the state of the robot, used for automarking.
 	 */
 	public void readState() {
-		String state = "x=" + x + " y=" + y + " dir=" + dir + " fuel=" + fuel + " shield=" + shield;
-		history.add(state);
-		System.out.println(state);
+		if (stepped && currentAction != 0) {
+			// read once the world has done the action, by finishAction
+			statePending = true;
+			return;
+		}
+		if (replay != null)
+			replay.record(world.getTick(), replayId, x, y, dir.ordinal(), fuel, shield, lastAction);
+		lastAction = 0;
+		if (keepingHistory || printing) {
+			String state = "x=" + x + " y=" + y + " dir=" + dir + " fuel=" + fuel + " shield=" + shield;
+			if (keepingHistory)
+				history.add(state);
+			if (printing)
+				System.out.println(state);
+		}
+	}
+
+	/**
+	 * Whether readState keeps the state in the history. Runs that only need
+	 * a replay, or just the outcome, turn it off so the history doesn't grow.
+	 */
+	void setKeepingHistory(boolean keepingHistory) {
+		this.keepingHistory = keepingHistory;
+	}
+
+	/** Has readState add a record for the robot, 1 or 2 as in World, to the log */
+	void setReplay(ReplayLog replay, int id) {
+		this.replay = replay;
+		this.replayId = id;
+	}
+
+	/**
+	 * Whether readState prints the state as well as keeping it. Matches run
+	 * many at a time turn it off, so their threads don't queue to print.
+	 */
+	void setPrinting(boolean printing) {
+		this.printing = printing;
+	}
+
+	/**
+	 * Makes actions return as soon as they are started instead of waiting for
+	 * the world to do them, so the robot can be run a step at a time by
+	 * Stepper rather than on a thread of its own. The state after each action
+	 * is read by finishAction, once updatePending has been called.
+	 */
+	void setStepped(boolean stepped) {
+		this.stepped = stepped;
+	}
+
+	boolean isStepped() {
+		return stepped;
+	}
+
+	/**
+	 * Whether the robot's thread has started an action and is waiting for
+	 * updatePending to do it.
+	 */
+	boolean isBlocked() {
+		return waiting != null && currentAction != 0;
+	}
+
+	/** Whether a stepped action has been started and its state not yet read */
+	boolean isActing() {
+		return statePending;
+	}
+
+	/** Reads the state after a stepped action, once the world has done it */
+	void finishAction() {
+		if (statePending && currentAction == 0) {
+			statePending = false;
+			readState();
+		}
+	}
+
+	/**
+	 * The states recorded by readState so far, oldest first.
+	 */
+	List<String> getHistory() {
+		return Collections.unmodifiableList(history);
 	}
 
 	/**
@@ -373,6 +642,8 @@ public class Robot {
 	 */
 	public void setProgram(RobotProgramNode prog) {
 		program = prog;
+		slots = Variables.of(prog);
+		variables = new int[slots.size()];
 	}
 
 	/**
@@ -453,8 +724,6 @@ public class Robot {
 		}
 
 		double fuelCurrent = targetFuel * time + fuel * (1 - time);
-		if (fuelCurrent <= 0)
-			dead = true;
 
 		// draw fuel indicator
 		Arc2D fuelArc = new Arc2D.Double(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
@@ -467,6 +736,19 @@ public class Robot {
 		return dead;
 	}
 
+	/** Whether the robot has been cancelled, by World.reset or for spinning */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * The robot's fuel, for a caller other than its program, which unlike
+	 * getFuel doesn't throw once it is cancelled.
+	 */
+	int fuelLeft() {
+		return fuel;
+	}
+
 	private Point getOtherRobotPosition() {
 		Robot other = world.getOtherRobot(this);
 		return (other != null) ? toRelative(new Point(other.x, other.y)) : null;
@@ -550,17 +832,23 @@ public class Robot {
 	private void processFuelAndBlock() {
 		if (cancelled)
 			throw new RobotInterruptedException();
+		// an action, not a shield change, ends a run of loops
+		loops = 0;
 		// use fuel
 		processFuel();
-		if (this.noWait) {
+		lastAction = currentAction;
+		if (this.stepped) {
+			return;
+		} else if (this.noWait) {
 			updatePending();
 		} else {
+			// set before looking at currentAction, so an updatePending that
+			// clears it after that look is sure to unpark this thread
+			waiting = Thread.currentThread();
 			while (currentAction != 0) {
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-				}
+				LockSupport.park(this);
 			}
+			waiting = null;
 		}
 	}
 
@@ -573,6 +861,8 @@ public class Robot {
 		y = targetY;
 		dir = targetDir;
 		fuel = targetFuel;
+		if (fuel <= 0)
+			dead = true;
 		if (finished) {
 			currentAction = ACTION_WAIT;
 			processFuel();
@@ -592,7 +882,12 @@ public class Robot {
 				return d1 - d2;
 			}
 		});
+		takeSnapshot();
 		currentAction = 0;
+		Thread thread = waiting;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
 	}
 
 	public String toString() {
@@ -604,11 +899,16 @@ public class Robot {
 	 * turned on.
 	 */
 	private void debug(String action) {
-		if (RoboGame.debugDisplay && program != null) {
+		if (debugging()) {
 			System.out.println(colour + " robot: " + action);
 		}
 	}
 
+	/** Whether debug prints, so sensors can skip building the message */
+	private boolean debugging() {
+		return RoboGame.debugDisplay && program != null;
+	}
+
 	/**
 	 * What the robot will do if it has no valid controller
 	 */
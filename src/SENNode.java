@@ -0,0 +1,18 @@
+class SENNode implements SensorNode {
+	final SensorNode sensor;
+
+	SENNode(SensorNode sensor) {
+		this.sensor = sensor;
+	}
+
+	@Override
+	public int evaluate(Robot robot) {
+		return sensor.evaluate(robot);
+	}
+
+	@Override
+	public String toString() {
+		return sensor.toString();
+	}
+
+}
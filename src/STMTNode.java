@@ -0,0 +1,18 @@
+class STMTNode implements RobotProgramNode {
+	final RobotProgramNode child;
+
+	STMTNode(RobotProgramNode child) {
+		this.child = child;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		child.execute(robot);
+	}
+
+	@Override
+	public String toString() {
+		return child.toString();
+	}
+
+}
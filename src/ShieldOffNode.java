@@ -0,0 +1,14 @@
+class ShieldOffNode implements RobotProgramNode {
+
+	@Override
+	public void execute(Robot robot) {
+		robot.setShield(false);
+
+	}
+
+	@Override
+	public String toString() {
+		return "shieldOff; ";
+
+	}
+}
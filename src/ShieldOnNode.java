@@ -0,0 +1,14 @@
+class ShieldOnNode implements RobotProgramNode {
+
+	@Override
+	public void execute(Robot robot) {
+		robot.setShield(true);
+
+	}
+
+	@Override
+	public String toString() {
+		return "shieldOn; ";
+
+	}
+}
@@ -0,0 +1,321 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a match without a GUI, timer or robot threads, a tick as soon as the
+ * last is done. Each tick both robots are stepped, red first, until they
+ * start their next action, as their threads would between two calls of
+ * World.updateWorld, and then the world is updated. This is the noWait path
+ * of World.RoboGamePrinter made to work for two robots: instead of a robot
+ * doing its action the moment it starts it, the robots take turns as they
+ * do in a game.
+ *
+ * With the same seed for the world, and the same programs, a match plays as
+ * it does in the GUI started with -Dworld.seed, except where both robots go
+ * for the same fuel in the same tick, where which gets it depends on their
+ * threads in the GUI and is always red here. Robots without a program run
+ * DEFAULT_PROGRAM, which does what Robot's built in default does. Run as
+ *
+ * <pre>
+ * java Simulation [-seed n] [-ticks n] [file...]
+ * </pre>
+ *
+ * to play each pair of the programs (by default those in data/) both
+ * headless and on threads ticked like the GUI's, check that the robots'
+ * histories are the same, and time both, and then check that a match
+ * against each of Harness.SPINNING ends.
+ */
+class Simulation {
+
+	/** Robot.defaultProgram, as a program */
+	static final String DEFAULT_PROGRAM = "while (gt(fuelLeft, 0)) {\n"
+			+ "  if (eq(numBarrels, 0)) { wait; }\n"
+			+ "  else {\n"
+			+ "    $lr = barrelLR; $fb = barrelFB;\n"
+			+ "    if (and(eq($lr, 0), eq($fb, 0))) { takeFuel; }\n"
+			+ "    elif (eq($fb, 0)) { if (lt($lr, 0)) { turnL; } else { turnR; } }\n"
+			+ "    elif (gt($fb, 0)) { move; }\n"
+			+ "    else { turnAround; }\n"
+			+ "  }\n"
+			+ "}\n";
+
+	/**
+	 * Bumped whenever a change makes matches play differently, so outcomes
+	 * kept by OutcomeCache from before are no longer used.
+	 */
+	static final int ENGINE_VERSION = 1;
+
+	private final World world;
+	private final Stepper[] steppers;
+	private int ticks;
+
+	/**
+	 * A match in a new world with the seed, between the programs, parsed or
+	 * already compiled, or DEFAULT_PROGRAM for null.
+	 */
+	Simulation(long seed, RobotProgramNode red, RobotProgramNode blue) {
+		this(new World(seed), red, blue);
+	}
+
+	/** A match in the world given, which should be new */
+	Simulation(World world, RobotProgramNode red, RobotProgramNode blue) {
+		this.world = world;
+		world.addInitialFuel();
+		steppers = new Stepper[] { null, stepper(world.getRobot(1), red), stepper(world.getRobot(2), blue) };
+		step();
+	}
+
+	private static Stepper stepper(Robot robot, RobotProgramNode program) {
+		return new Stepper(robot, (program instanceof Bytecode) ? (Bytecode) program : compile(program));
+	}
+
+	/**
+	 * The program as a match runs it, DEFAULT_PROGRAM for null. Compiled
+	 * programs can be given to any number of matches at once, so a program
+	 * playing many needs compiling only once.
+	 */
+	static Bytecode compile(RobotProgramNode program) {
+		if (program == null) {
+			program = IterativeParser.parseProgram(new Lexer(DEFAULT_PROGRAM.toCharArray()));
+		}
+		return Bytecode.compile(new Optimizer().optimize(program));
+	}
+
+	/**
+	 * Plays one tick: the world does the robots' actions, then each runs on
+	 * to its next. Returns false once the match is over, when either robot
+	 * has run out of fuel.
+	 */
+	boolean tick() {
+		if (isOver()) {
+			return false;
+		}
+		world.updateWorld();
+		ticks++;
+		step();
+		return !isOver();
+	}
+
+	/** Runs both robots on to their next actions, red first */
+	private void step() {
+		for (int i = 1; i <= 2; i++) {
+			steppers[i].step();
+		}
+	}
+
+	/** Plays until the match is over or has gone on for the ticks given */
+	int play(int maxTicks) {
+		while (ticks < maxTicks && tick()) {
+			// next tick
+		}
+		return ticks;
+	}
+
+	boolean isOver() {
+		return world.getRobot(1).isDead() || world.getRobot(2).isDead();
+	}
+
+	int getTicks() {
+		return ticks;
+	}
+
+	World getWorld() {
+		return world;
+	}
+
+	/** The exception that stopped the robot's program, or null */
+	RuntimeException getFailure(int robot) {
+		return steppers[robot].getFailure();
+	}
+
+	/**
+	 * A robot on a thread of its own which takes its turn as in a headless
+	 * match: red carries on after a tick once the world has done blue's
+	 * action too, and blue once red has started its next. On the GUI's
+	 * threads either can go first, and which did decides who gets fuel both
+	 * take, or a square both move to, and whether blue sees fuel red has
+	 * just taken.
+	 */
+	private static class ThreadedRobot extends Robot {
+		private ThreadedRobot other;
+		private final boolean red;
+		private volatile boolean done;
+
+		ThreadedRobot(World world, int x, int y, String colour) {
+			super(world, x, y, colour, false);
+			this.red = colour.equals("red");
+		}
+
+		private void awaitTurn() {
+			if (red) {
+				while (other.isBlocked()) {
+					Thread.yield();
+				}
+			} else {
+				other.await();
+			}
+		}
+
+		@Override
+		public void readState() {
+			awaitTurn();
+			super.readState();
+		}
+
+		/** Waits until the robot's thread has started an action or ended */
+		void await() {
+			while (!isBlocked() && !done) {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * The histories of both robots, then how the match ended, playing it as
+	 * the GUI does: each robot on a thread of its own and the world ticked
+	 * once both are waiting for it, without the GUI's animation delay.
+	 */
+	static List<String> threaded(long seed, RobotProgramNode red, RobotProgramNode blue, int maxTicks)
+			throws InterruptedException {
+		World world = new World(seed);
+		final ThreadedRobot[] robots = { null, new ThreadedRobot(world, 0, 0, "red"),
+				new ThreadedRobot(world, World.SIZE - 1, World.SIZE - 1, "blue") };
+		robots[1].other = robots[2];
+		robots[2].other = robots[1];
+		world.robots = robots;
+		RobotProgramNode[] programs = { null, red, blue };
+		Thread[] threads = new Thread[3];
+		world.addInitialFuel();
+		for (int i = 1; i <= 2; i++) {
+			final ThreadedRobot robot = robots[i];
+			if (programs[i] != null) {
+				robot.setProgram(World.runnable(programs[i]));
+			}
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						robot.awaitTurn();
+						try {
+							robot.run();
+						} catch (RobotInterruptedException e) {
+						}
+						robot.setFinished(true);
+					} finally {
+						robot.done = true;
+					}
+				}
+			});
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		int ticks = 0;
+		robots[1].await();
+		robots[2].await();
+		while (ticks < maxTicks && !robots[1].isDead() && !robots[2].isDead()) {
+			world.updateWorld();
+			ticks++;
+			robots[1].await();
+			robots[2].await();
+		}
+		List<String> result = result(world, ticks);
+		world.reset();
+		for (int i = 1; i <= 2; i++) {
+			threads[i].join();
+		}
+		return result;
+	}
+
+	/** The histories of both robots, then how the match ended */
+	List<String> result() {
+		return result(world, ticks);
+	}
+
+	private static List<String> result(World world, int ticks) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 1; i <= 2; i++) {
+			result.add("robot " + i);
+			result.addAll(world.getRobot(i).getHistory());
+		}
+		result.add(ticks + " ticks, red " + (world.getRobot(1).isDead() ? "dead" : "alive") + ", blue "
+				+ (world.getRobot(2).isDead() ? "dead" : "alive"));
+		return result;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long seed = 1;
+		int maxTicks = 500;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-ticks") && i + 1 < args.length) {
+				maxTicks = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		RoboGame.debugDisplay = false;
+		List<RobotProgramNode> programs = new ArrayList<RobotProgramNode>();
+		List<String> names = new ArrayList<String>();
+		programs.add(null);
+		names.add("(default)");
+		for (File file : Harness.programs(files)) {
+			RobotProgramNode tree = Harness.parse(file);
+			if (tree != null) {
+				programs.add(tree);
+				names.add(file.getName());
+			}
+		}
+
+		boolean same = true;
+		int matches = 0;
+		long ticks = 0, nanos = 0, threadedNanos = 0;
+		for (int r = 0; r < programs.size(); r++) {
+			for (int b = 0; b < programs.size(); b++) {
+				Harness.quiet();
+				long start = System.nanoTime();
+				List<String> expected = threaded(seed, programs.get(r), programs.get(b), maxTicks);
+				threadedNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				Simulation match = new Simulation(seed, programs.get(r), programs.get(b));
+				match.play(maxTicks);
+				nanos += System.nanoTime() - start;
+				List<String> got = match.result();
+				match.getWorld().reset();
+				Harness.loud();
+				matches++;
+				ticks += match.getTicks();
+				if (!expected.equals(got)) {
+					same = false;
+					int i = 0;
+					while (i < expected.size() && i < got.size() && expected.get(i).equals(got.get(i))) {
+						i++;
+					}
+					System.out.println(names.get(r) + " vs " + names.get(b) + " differs at line " + i + ":");
+					System.out.println("  threaded: " + (i < expected.size() ? expected.get(i) : "(end)"));
+					System.out.println("  headless: " + (i < got.size() ? got.get(i) : "(end)"));
+				}
+			}
+		}
+		System.out.println(same ? matches + " matches play the same headless" : "Headless matches DIFFER");
+		System.out.printf("%d ticks headless in %.1f ms, %.0f ticks/s; on threads in %.1f ms, %.0f ticks/s%n", ticks,
+				nanos / 1e6, ticks / (nanos / 1e9), threadedNanos / 1e6, ticks / (threadedNanos / 1e9));
+
+		// a robot running a spinning program still has to get to its actions
+		for (RobotProgramNode program : Harness.spinning()) {
+			World world = new World(seed);
+			for (int i = 1; i <= 2; i++) {
+				world.getRobot(i).setLoopBudget(Harness.LOOP_BUDGET);
+				world.getRobot(i).setKeepingHistory(false);
+			}
+			Harness.quiet();
+			new Simulation(world, program, null).play(maxTicks);
+			world.reset();
+			Harness.loud();
+		}
+		System.out.println(Harness.SPINNING.length + " matches of spinning programs end");
+	}
+}
@@ -0,0 +1,580 @@
+import java.awt.Point;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Rewrites a parsed program into nodes that each do one thing, for running.
+ * The parsed nodes decide what to do every time they run: EXPNode compares
+ * its operation name against each of add, sub, mul and div, and CONDNode its
+ * and, or or not. Here each decision is made once, when the program is
+ * loaded, by choosing a node class: Add, Sub, Lt, And and so on, each final
+ * with a single evaluate body. STMTNode, ACTNode, SENNode and EXPNodes that
+ * only hold another node are dropped, and blocks hold arrays.
+ *
+ * The specialized nodes make the same calls on the robot in the same order
+ * as the parsed ones. They only print as the program they came from, as a
+ * whole. Run as
+ *
+ * <pre>
+ * java Specializer [-actions n] [file...]
+ * </pre>
+ *
+ * to check that each program, by default those in data/, runs the same
+ * specialized, and to time evaluating all its conditions both ways.
+ */
+class Specializer {
+
+	/**
+	 * The specialized version of a parsed program.
+	 */
+	static RobotProgramNode specialize(RobotProgramNode program) {
+		if (program == null) {
+			return null;
+		}
+		return new Program(statement(program), program);
+	}
+
+	/** The program as a whole, printing as its source */
+	static final class Program implements RobotProgramNode {
+		final RobotProgramNode body;
+		final Variables variables;
+		private final RobotProgramNode source;
+
+		Program(RobotProgramNode body, RobotProgramNode source) {
+			this.body = body;
+			this.variables = Variables.of(source);
+			this.source = source;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			body.execute(robot);
+		}
+
+		@Override
+		public String toString() {
+			return source.toString();
+		}
+	}
+
+	static RobotProgramNode statement(RobotProgramNode node) {
+		if (node instanceof PROGNode) {
+			return sequence(((PROGNode) node).children);
+		} else if (node instanceof BLOCKNode) {
+			return sequence(((BLOCKNode) node).children);
+		} else if (node instanceof STMTNode) {
+			return statement(((STMTNode) node).child);
+		} else if (node instanceof ACTNode) {
+			return statement(((ACTNode) node).child);
+		} else if (node instanceof LOOPNode) {
+			return new Loop(statement(((LOOPNode) node).block));
+		} else if (node instanceof WHILENode) {
+			WHILENode n = (WHILENode) node;
+			return new While(condition(n.Condition), statement(n.Block));
+		} else if (node instanceof IFNode) {
+			IFNode n = (IFNode) node;
+			ConditionNode[] conditions = new ConditionNode[n.Elifs.size() + 1];
+			RobotProgramNode[] blocks = new RobotProgramNode[conditions.length];
+			conditions[0] = condition(n.Condition);
+			blocks[0] = statement(n.Block);
+			for (int i = 1; i < conditions.length; i++) {
+				conditions[i] = condition(n.Elifs.get(i - 1).Condition);
+				blocks[i] = statement(n.Elifs.get(i - 1).Block);
+			}
+			RobotProgramNode otherwise = (n.Else == null) ? null : statement(n.Else.Block);
+			if (conditions.length == 1) {
+				return new If(conditions[0], blocks[0], otherwise);
+			}
+			return new Elif(conditions, blocks, otherwise);
+		} else if (node instanceof ASSGNNode) {
+			ASSGNNode n = (ASSGNNode) node;
+			return new Assign(n.var.slot, expression(n.expr));
+		} else if (node instanceof MoveNode && ((MoveNode) node).expr != null) {
+			return new MoveTimes(expression(((MoveNode) node).expr));
+		} else if (node instanceof WaitNode && ((WaitNode) node).expr != null) {
+			return new WaitTimes(expression(((WaitNode) node).expr));
+		}
+		// the other actions already only do one thing
+		return node;
+	}
+
+	private static RobotProgramNode sequence(List<RobotProgramNode> children) {
+		if (children.size() == 1) {
+			return statement(children.get(0));
+		}
+		RobotProgramNode[] statements = new RobotProgramNode[children.size()];
+		for (int i = 0; i < statements.length; i++) {
+			statements[i] = statement(children.get(i));
+		}
+		return new Sequence(statements);
+	}
+
+	static ConditionNode condition(ConditionNode node) {
+		CONDNode c = (CONDNode) node;
+		if (c.cond == null) {
+			SensorNode a = expression(c.expr1), b = expression(c.expr2);
+			if (c.Relop.operation instanceof LTNode) {
+				return new Lt(a, b);
+			} else if (c.Relop.operation instanceof GTNode) {
+				return new Gt(a, b);
+			} else if (c.Relop.operation instanceof EQNode) {
+				return new Eq(a, b);
+			}
+			// CONDNode is false for anything else, without evaluating either
+			return new Never();
+		} else if (c.cond.equals("and")) {
+			return new And(condition(c.condParam1), condition(c.condParam2));
+		} else if (c.cond.equals("or")) {
+			return new Or(condition(c.condParam1), condition(c.condParam2));
+		}
+		return new Not(condition(c.condParam1));
+	}
+
+	static SensorNode expression(SensorNode node) {
+		if (node instanceof EXPNode) {
+			EXPNode n = (EXPNode) node;
+			if (n.operation == null) {
+				return expression(n.expr1);
+			}
+			switch (n.operation.operation) {
+			case "add":
+				return new Add(expression(n.expr1), expression(n.expr2));
+			case "sub":
+				return new Sub(expression(n.expr1), expression(n.expr2));
+			case "mul":
+				return new Mul(expression(n.expr1), expression(n.expr2));
+			case "div":
+				return new Div(expression(n.expr1), expression(n.expr2));
+			default:
+				// what EXPNode gives, without evaluating either
+				return new NUMNode(-1);
+			}
+		} else if (node instanceof SENNode) {
+			return expression(((SENNode) node).sensor);
+		} else if (node instanceof BarrelLRNode && ((BarrelLRNode) node).index != null) {
+			return new BarrelLR(expression(((BarrelLRNode) node).index));
+		} else if (node instanceof BarrelFBNode && ((BarrelFBNode) node).index != null) {
+			return new BarrelFB(expression(((BarrelFBNode) node).index));
+		}
+		// numbers, variables and the other sensors already only do one thing
+		return node;
+	}
+
+	// =======================================================
+	// Statements
+	// =======================================================
+
+	private static final class Sequence implements RobotProgramNode {
+		final RobotProgramNode[] statements;
+
+		Sequence(RobotProgramNode[] statements) {
+			this.statements = statements;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			for (RobotProgramNode s : statements) {
+				s.execute(robot);
+			}
+		}
+	}
+
+	private static final class Loop implements RobotProgramNode {
+		final RobotProgramNode body;
+
+		Loop(RobotProgramNode body) {
+			this.body = body;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			// only stops when the robot is cancelled
+			while (true) {
+				body.execute(robot);
+				robot.loop();
+			}
+		}
+	}
+
+	private static final class While implements RobotProgramNode {
+		final ConditionNode condition;
+		final RobotProgramNode body;
+
+		While(ConditionNode condition, RobotProgramNode body) {
+			this.condition = condition;
+			this.body = body;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			while (condition.evaluate(robot)) {
+				body.execute(robot);
+				robot.loop();
+			}
+		}
+	}
+
+	/** An if without elifs, the else may be null */
+	private static final class If implements RobotProgramNode {
+		final ConditionNode condition;
+		final RobotProgramNode then, otherwise;
+
+		If(ConditionNode condition, RobotProgramNode then, RobotProgramNode otherwise) {
+			this.condition = condition;
+			this.then = then;
+			this.otherwise = otherwise;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			if (condition.evaluate(robot)) {
+				then.execute(robot);
+			} else if (otherwise != null) {
+				otherwise.execute(robot);
+			}
+		}
+	}
+
+	/** An if with elifs, as parallel arrays of conditions and blocks */
+	private static final class Elif implements RobotProgramNode {
+		final ConditionNode[] conditions;
+		final RobotProgramNode[] blocks;
+		final RobotProgramNode otherwise;
+
+		Elif(ConditionNode[] conditions, RobotProgramNode[] blocks, RobotProgramNode otherwise) {
+			this.conditions = conditions;
+			this.blocks = blocks;
+			this.otherwise = otherwise;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			for (int i = 0; i < conditions.length; i++) {
+				if (conditions[i].evaluate(robot)) {
+					blocks[i].execute(robot);
+					return;
+				}
+			}
+			if (otherwise != null) {
+				otherwise.execute(robot);
+			}
+		}
+	}
+
+	private static final class Assign implements RobotProgramNode {
+		final int slot;
+		final SensorNode value;
+
+		Assign(int slot, SensorNode value) {
+			this.slot = slot;
+			this.value = value;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			robot.setVariable(slot, value.evaluate(robot));
+		}
+	}
+
+	private static final class MoveTimes implements RobotProgramNode {
+		final SensorNode steps;
+
+		MoveTimes(SensorNode steps) {
+			this.steps = steps;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			for (int i = steps.evaluate(robot); i > 0; i--) {
+				robot.move();
+			}
+		}
+	}
+
+	private static final class WaitTimes implements RobotProgramNode {
+		final SensorNode turns;
+
+		WaitTimes(SensorNode turns) {
+			this.turns = turns;
+		}
+
+		@Override
+		public void execute(Robot robot) {
+			for (int i = turns.evaluate(robot); i > 0; i--) {
+				robot.idleWait();
+			}
+		}
+	}
+
+	// =======================================================
+	// Conditions
+	// =======================================================
+
+	private static final class Lt implements ConditionNode {
+		final SensorNode a, b;
+
+		Lt(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean evaluate(Robot robot) {
+			return a.evaluate(robot) < b.evaluate(robot);
+		}
+	}
+
+	private static final class Gt implements ConditionNode {
+		final SensorNode a, b;
+
+		Gt(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean evaluate(Robot robot) {
+			return a.evaluate(robot) > b.evaluate(robot);
+		}
+	}
+
+	private static final class Eq implements ConditionNode {
+		final SensorNode a, b;
+
+		Eq(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean evaluate(Robot robot) {
+			return a.evaluate(robot) == b.evaluate(robot);
+		}
+	}
+
+	private static final class Never implements ConditionNode {
+		@Override
+		public boolean evaluate(Robot robot) {
+			return false;
+		}
+	}
+
+	private static final class And implements ConditionNode {
+		final ConditionNode a, b;
+
+		And(ConditionNode a, ConditionNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean evaluate(Robot robot) {
+			return a.evaluate(robot) && b.evaluate(robot);
+		}
+	}
+
+	private static final class Or implements ConditionNode {
+		final ConditionNode a, b;
+
+		Or(ConditionNode a, ConditionNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean evaluate(Robot robot) {
+			return a.evaluate(robot) || b.evaluate(robot);
+		}
+	}
+
+	private static final class Not implements ConditionNode {
+		final ConditionNode a;
+
+		Not(ConditionNode a) {
+			this.a = a;
+		}
+
+		@Override
+		public boolean evaluate(Robot robot) {
+			return !a.evaluate(robot);
+		}
+	}
+
+	// =======================================================
+	// Expressions
+	// =======================================================
+
+	private static final class Add implements SensorNode {
+		final SensorNode a, b;
+
+		Add(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public int evaluate(Robot robot) {
+			return a.evaluate(robot) + b.evaluate(robot);
+		}
+	}
+
+	private static final class Sub implements SensorNode {
+		final SensorNode a, b;
+
+		Sub(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public int evaluate(Robot robot) {
+			return a.evaluate(robot) - b.evaluate(robot);
+		}
+	}
+
+	private static final class Mul implements SensorNode {
+		final SensorNode a, b;
+
+		Mul(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public int evaluate(Robot robot) {
+			return a.evaluate(robot) * b.evaluate(robot);
+		}
+	}
+
+	private static final class Div implements SensorNode {
+		final SensorNode a, b;
+
+		Div(SensorNode a, SensorNode b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public int evaluate(Robot robot) {
+			return a.evaluate(robot) / b.evaluate(robot);
+		}
+	}
+
+	private static final class BarrelLR implements SensorNode {
+		final SensorNode index;
+
+		BarrelLR(SensorNode index) {
+			this.index = index;
+		}
+
+		@Override
+		public int evaluate(Robot robot) {
+			return robot.getBarrelLR(index.evaluate(robot));
+		}
+	}
+
+	private static final class BarrelFB implements SensorNode {
+		final SensorNode index;
+
+		BarrelFB(SensorNode index) {
+			this.index = index;
+		}
+
+		@Override
+		public int evaluate(Robot robot) {
+			return robot.getBarrelFB(index.evaluate(robot));
+		}
+	}
+
+	// =======================================================
+	// Checking and timing
+	// =======================================================
+
+	/** Every condition in the tree, in no particular order */
+	private static List<CONDNode> conditions(RobotProgramNode program) {
+		List<CONDNode> found = new ArrayList<CONDNode>();
+		Deque<Object> stack = new ArrayDeque<Object>();
+		stack.push(program);
+		while (!stack.isEmpty()) {
+			Object node = stack.pop();
+			if (node instanceof CONDNode) {
+				found.add((CONDNode) node);
+			}
+			for (Object child : ProgramTree.children(node)) {
+				stack.push(child);
+			}
+		}
+		return found;
+	}
+
+	/** Nanoseconds per evaluation of all the conditions, repeated for the time given */
+	private static double time(ConditionNode[] conditions, Robot robot, long millis) {
+		long end = System.nanoTime() + millis * 1000000;
+		long start = System.nanoTime(), evaluations = 0;
+		int sink = 0;
+		do {
+			for (int i = 0; i < 1000; i++) {
+				for (ConditionNode c : conditions) {
+					sink += c.evaluate(robot) ? 1 : 0;
+				}
+			}
+			evaluations += 1000L * conditions.length;
+		} while (System.nanoTime() < end);
+		double nanos = System.nanoTime() - start;
+		return (sink < 0) ? -1 : nanos / evaluations;
+	}
+
+	public static void main(String[] args) {
+		int actions = 2000;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-actions") && i + 1 < args.length) {
+				actions = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		RoboGame.debugDisplay = false;
+		// a robot in a world with fuel, for the sensors to see
+		World world = new World();
+		world.availableFuel.add(new Point(3, 4));
+		world.availableFuel.add(new Point(8, 2));
+		world.updateWorld();
+		final Robot robot = world.getRobot(1);
+		boolean same = Harness.check(Harness.programs(files), actions, new Harness.Variant("specialized") {
+			@Override
+			RobotProgramNode make(RobotProgramNode tree) {
+				return specialize(tree);
+			}
+
+			@Override
+			String report(RobotProgramNode tree, RobotProgramNode program, List<String> history, int actions) {
+				List<CONDNode> found = conditions(tree);
+				if (found.isEmpty()) {
+					return "";
+				}
+				ConditionNode[] parsed = found.toArray(new ConditionNode[found.size()]);
+				ConditionNode[] fast = new ConditionNode[parsed.length];
+				for (int i = 0; i < parsed.length; i++) {
+					fast[i] = condition(parsed[i]);
+				}
+				double parsedNanos, fastNanos;
+				try {
+					time(parsed, robot, 300);
+					time(fast, robot, 300);
+					parsedNanos = time(parsed, robot, 500);
+					fastNanos = time(fast, robot, 500);
+				} catch (RuntimeException e) {
+					return "  (not timed, a condition throws " + e.getClass().getSimpleName() + ")";
+				}
+				return String.format("  %4d conditions  parsed %6.1f  specialized %6.1f ns/eval", parsed.length,
+						parsedNanos, fastNanos);
+			}
+		});
+		System.out.println(same ? "Specialized programs run the same" : "Specialized programs DIFFER");
+	}
+}
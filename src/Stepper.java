@@ -0,0 +1,156 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a robot's program a step at a time, without a thread of its own. The
+ * program is compiled to Bytecode, and the position in the code and the
+ * expression stack are kept in a Bytecode.State between steps rather than on
+ * a Java stack, so each step carries on where the last stopped.
+ *
+ * The robot is put in stepped mode: an action starts and returns at once,
+ * and step returns with it. Whoever is doing the stepping then has the world
+ * do the action, by calling updatePending as World.updateWorld does, before
+ * the next step reads the robot's state and carries on. One thread can so
+ * take turns at thousands of robots. Run as
+ *
+ * <pre>
+ * java Stepper [-actions n] [-robots n] [file...]
+ * </pre>
+ *
+ * to check, for each program (by default those in data/), that a stepped
+ * robot ends up with the same history as one running the tree, and then to
+ * step that many robots, each with its own world, from the one thread.
+ */
+class Stepper {
+
+	private final Robot robot;
+	private final Bytecode program;
+	private final Bytecode.State state;
+	private boolean done;
+	private RuntimeException failure;
+
+	/** Steps the program on the robot, which is put in stepped mode */
+	Stepper(Robot robot, RobotProgramNode program) {
+		this.robot = robot;
+		this.program = (program instanceof Bytecode) ? (Bytecode) program : Bytecode.compile(program);
+		this.state = new Bytecode.State(this.program);
+		robot.setProgram(this.program);
+		robot.setStepped(true);
+	}
+
+	/**
+	 * Runs the program until the robot starts its next action, returning
+	 * true if it did, or false once the program has ended or stopped. The
+	 * action must be done, by updatePending, before the next step.
+	 */
+	boolean step() {
+		if (done) {
+			return false;
+		}
+		try {
+			if (!program.resume(state, robot)) {
+				return true;
+			}
+		} catch (RobotInterruptedException e) {
+			// cancelled
+		} catch (RuntimeException e) {
+			failure = e;
+			done = true;
+			return false;
+		}
+		done = true;
+		robot.setFinished(true);
+		return false;
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	/** The exception that stopped the program, or null */
+	RuntimeException getFailure() {
+		return failure;
+	}
+
+	Robot getRobot() {
+		return robot;
+	}
+
+	/**
+	 * The history of a robot stepping the program, as Harness.trace gives
+	 * for one running it.
+	 */
+	static List<String> trace(RobotProgramNode program, int actions) {
+		Robot robot = Harness.robot(program, actions);
+		Stepper stepper = new Stepper(robot, program);
+		while (stepper.step()) {
+			robot.updatePending();
+		}
+		List<String> history = new ArrayList<String>(robot.getHistory());
+		if (stepper.getFailure() != null) {
+			history.add(stepper.getFailure().toString());
+		}
+		return history;
+	}
+
+	public static void main(String[] args) {
+		int actions = 2000, robots = 1000;
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-actions") && i + 1 < args.length) {
+				actions = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-robots") && i + 1 < args.length) {
+				robots = Integer.parseInt(args[++i]);
+			} else {
+				files.add(new File(args[i]));
+			}
+		}
+
+		RoboGame.debugDisplay = false;
+		final List<Bytecode> programs = new ArrayList<Bytecode>();
+		boolean same = Harness.check(Harness.programs(files), actions, new Harness.Variant("stepped") {
+			@Override
+			RobotProgramNode make(RobotProgramNode tree) {
+				Bytecode program = Bytecode.compile(tree);
+				programs.add(program);
+				return program;
+			}
+
+			@Override
+			List<String> trace(RobotProgramNode program, int actions) {
+				return Stepper.trace(program, actions);
+			}
+		});
+		System.out.println(same ? "Stepped programs run the same" : "Stepped programs DIFFER");
+		if (programs.isEmpty() || robots <= 0) {
+			return;
+		}
+
+		// take turns at all the robots from this thread, a tick at a time
+		List<Stepper> steppers = new ArrayList<Stepper>(robots);
+		for (int i = 0; i < robots; i++) {
+			RobotProgramNode program = programs.get(i % programs.size());
+			steppers.add(new Stepper(Harness.robot(program, actions), program));
+		}
+		Harness.quiet();
+		long start = System.nanoTime();
+		long steps = 0;
+		int ticks = 0, running = robots;
+		while (running > 0) {
+			running = 0;
+			for (Stepper stepper : steppers) {
+				if (stepper.step()) {
+					stepper.getRobot().updatePending();
+					steps++;
+					running++;
+				}
+			}
+			ticks++;
+		}
+		long nanos = System.nanoTime() - start;
+		Harness.loud();
+		System.out.printf("%d robots, %d ticks, %d actions on one thread in %.1f ms, %.0f ns/action%n", robots,
+				ticks, steps, nanos / 1e6, (double) nanos / Math.max(1, steps));
+	}
+}
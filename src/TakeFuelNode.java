@@ -0,0 +1,15 @@
+class TakeFuelNode implements RobotProgramNode {
+
+	@Override
+	public void execute(Robot robot) {
+		robot.takeFuel();
+
+	}
+
+	@Override
+	public String toString() {
+		return "takeFuel; ";
+
+	}
+
+}
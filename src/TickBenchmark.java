@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * Measures how long a robot's thread takes to carry on after the world has
+ * done its action, from World.updateWorld to the robot reading its state.
+ * Run as
+ *
+ * <pre>
+ * java TickBenchmark [-ticks n]
+ * </pre>
+ *
+ * Both robots of a world turn on the spot on threads of their own, as in a
+ * game, while this thread plays the world, ticking as soon as both are
+ * waiting again. The mean, median and 99th percentile latency are printed.
+ */
+class TickBenchmark {
+
+	/** A robot noting when it carries on after each action */
+	private static class TimedRobot extends Robot {
+		private volatile long resumed;
+
+		TimedRobot(World world, int x, int y, String colour) {
+			super(world, x, y, colour, false);
+		}
+
+		@Override
+		public void readState() {
+			resumed = System.nanoTime();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int ticks = 500;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-ticks")) {
+				ticks = Integer.parseInt(args[i + 1]);
+			}
+		}
+		RoboGame.debugDisplay = false;
+
+		World world = new World();
+		final TimedRobot red = new TimedRobot(world, 0, 0, "red");
+		final TimedRobot blue = new TimedRobot(world, World.SIZE - 1, World.SIZE - 1, "blue");
+		world.robots = new Robot[] { null, red, blue };
+		red.updatePending();
+		blue.updatePending();
+		RobotProgramNode program = IterativeParser.parseProgram(new Lexer("loop { turnL; }".toCharArray()));
+		for (final Robot robot : new Robot[] { red, blue }) {
+			robot.setProgram(program);
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						robot.run();
+					} catch (RobotInterruptedException e) {
+					}
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+		// let both start their first action
+		Thread.sleep(50);
+
+		long[] latency = new long[ticks];
+		for (int i = 0; i < ticks; i++) {
+			long start = System.nanoTime();
+			world.updateWorld();
+			while (red.resumed < start || blue.resumed < start) {
+				Thread.onSpinWait();
+			}
+			latency[i] = Math.max(red.resumed, blue.resumed) - start;
+			// give both time to start their next action
+			Thread.sleep(1);
+		}
+		world.reset();
+
+		Arrays.sort(latency);
+		long total = 0;
+		for (long l : latency) {
+			total += l;
+		}
+		System.out.printf("%d ticks: mean %.1f us, median %.1f us, 99%% %.1f us%n", ticks,
+				total / 1e3 / ticks, latency[ticks / 2] / 1e3, latency[ticks * 99 / 100] / 1e3);
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * The kinds of token produced by the Lexer. Keywords and punctuation carry
+ * their spelling, the remaining kinds (numbers, variables and any other word)
+ * take their text from the source.
+ */
+enum Token {
+	// statements
+	LOOP("loop"), IF("if"), ELIF("elif"), ELSE("else"), WHILE("while"), ASSIGN("="),
+
+	// actions
+	MOVE("move"), TURN_L("turnL"), TURN_R("turnR"), TURN_AROUND("turnAround"), SHIELD_ON("shieldOn"),
+	SHIELD_OFF("shieldOff"), TAKE_FUEL("takeFuel"), WAIT("wait"),
+
+	// conditions
+	LT("lt"), GT("gt"), EQ("eq"), AND("and"), OR("or"), NOT("not"),
+
+	// expressions
+	ADD("add"), SUB("sub"), MUL("mul"), DIV("div"),
+
+	// sensors
+	FUEL_LEFT("fuelLeft"), OPP_LR("oppLR"), OPP_FB("oppFB"), NUM_BARRELS("numBarrels"), BARREL_LR("barrelLR"),
+	BARREL_FB("barrelFB"), WALL_DIST("wallDist"),
+
+	// punctuation
+	OPENPAREN("("), CLOSEPAREN(")"), OPENBRACE("{"), CLOSEBRACE("}"), COMMA(","), SEMICOLON(";"),
+
+	// tokens whose text comes from the source
+	NUM(null), VAR(null), IDENT(null), EOF(null);
+
+	final String text;
+
+	Token(String text) {
+		this.text = text;
+	}
+}
@@ -0,0 +1,281 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays every program in a directory against every other, as red and as
+ * blue, once for each seed, in headless matches. Run as
+ *
+ * <pre>
+ * java Tournament [-seeds n] [-ticks n] [-threads n] [-scaling] [-out file.csv] [-cache file] [-replays dir] dir
+ * </pre>
+ *
+ * Each program is parsed and compiled once and shared by all its matches.
+ * The matches are run on a work-stealing ForkJoinPool with a thread per core
+ * (or -threads), and a line for each written to the CSV file (or standard
+ * output) as soon as it is over: the programs, the seed, the winner, how
+ * many ticks it lasted and both robots' fuel at the end. A robot loses by
+ * running out of fuel, or by being cancelled for spinning when run with
+ * -Drobot.overBudget=cancel. A match neither robot has lost by -ticks (1000
+ * by default) is won on fuel. With -scaling the whole tournament is played
+ * on 1, 2, 4 ... threads up to the number of cores instead, printing the
+ * matches a second of each.
+ *
+ * With -cache file, outcomes are kept in an OutcomeCache, and a match whose
+ * programs, seed and settings are unchanged since it was last played is
+ * taken from there instead of being played again. How many were is printed
+ * at the end. With -replays dir, each match played writes a ReplayLog of
+ * both robots there, named for the programs and seed.
+ */
+class Tournament {
+
+	private final List<String> names = new ArrayList<String>();
+	/** The SHA-256 of each program's source */
+	private final List<String> hashes = new ArrayList<String>();
+	private final List<Bytecode> programs = new ArrayList<Bytecode>();
+	private final int seeds, ticks;
+	private OutcomeCache cache;
+	private File replays;
+
+	Tournament(File dir, int seeds, int ticks) {
+		this.seeds = seeds;
+		this.ticks = ticks;
+		File[] files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".prog");
+			}
+		});
+		if (files == null) {
+			throw new IllegalArgumentException(dir + " is not a directory");
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			byte[] source;
+			try {
+				source = Files.readAllBytes(file.toPath());
+			} catch (IOException e) {
+				System.err.println(file.getName() + " can't be read, left out: " + e);
+				continue;
+			}
+			RobotProgramNode tree = World.PROGRAMS.load(source);
+			if (tree == null) {
+				System.err.println(file.getName() + " doesn't parse, left out");
+				continue;
+			}
+			names.add(file.getName());
+			hashes.add(ProgramCache.hash(source));
+			programs.add(Simulation.compile(tree));
+		}
+	}
+
+	/** Writes a replay of each match played to the directory */
+	void setReplays(File replays) {
+		this.replays = replays;
+	}
+
+	/** Takes the outcomes of matches played before from the cache, and keeps new ones there */
+	void setCache(OutcomeCache cache) {
+		this.cache = cache;
+	}
+
+	/** How many matches the tournament has */
+	int size() {
+		return programs.size() * (programs.size() - 1) * seeds;
+	}
+
+	/**
+	 * Plays all the matches on the given number of threads, writing each
+	 * result to out as it comes in, and returns the nanoseconds taken.
+	 */
+	long play(int threads, final PrintStream out) throws InterruptedException {
+		out.println("red,blue,seed,winner,ticks,red_fuel,blue_fuel");
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<Future<?>> matches = new ArrayList<Future<?>>(size());
+		long start = System.nanoTime();
+		for (int r = 0; r < programs.size(); r++) {
+			for (int b = 0; b < programs.size(); b++) {
+				if (r == b) {
+					continue;
+				}
+				for (int seed = 1; seed <= seeds; seed++) {
+					final int red = r, blue = b;
+					final long s = seed;
+					matches.add(pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							String line = play(red, blue, s);
+							synchronized (out) {
+								out.println(line);
+								out.flush();
+							}
+						}
+					}));
+				}
+			}
+		}
+		for (Future<?> match : matches) {
+			try {
+				match.get();
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+		return nanos;
+	}
+
+	/** Plays one match, or finds it in the cache, returning its line of the CSV */
+	private String play(int red, int blue, long seed) {
+		String prefix = names.get(red) + "," + names.get(blue) + "," + seed + ",";
+		if (cache == null) {
+			return prefix + outcome(red, blue, seed);
+		}
+		String key = OutcomeCache.key(hashes.get(red), hashes.get(blue), seed, ticks);
+		String outcome = cache.get(key);
+		if (outcome == null) {
+			outcome = outcome(red, blue, seed);
+			try {
+				cache.put(key, outcome);
+			} catch (IOException e) {
+				System.err.println("can't keep the outcome: " + e);
+			}
+		}
+		return prefix + outcome;
+	}
+
+	/** Plays one match, returning the winner, ticks and fuel of its CSV line */
+	private String outcome(int red, int blue, long seed) {
+		World world = new World(seed);
+		ReplayLog replay = null;
+		if (replays != null) {
+			try {
+				String name = names.get(red) + "-" + names.get(blue) + "-" + seed + ".replay";
+				replay = new ReplayLog(new File(replays, name));
+			} catch (IOException e) {
+				System.err.println("can't write the replay: " + e);
+			}
+		}
+		for (int i = 1; i <= 2; i++) {
+			world.getRobot(i).setPrinting(false);
+			world.getRobot(i).setKeepingHistory(false);
+			if (replay != null) {
+				world.getRobot(i).setReplay(replay, i);
+			}
+		}
+		Simulation match = new Simulation(world, programs.get(red), programs.get(blue));
+		int played = match.play(ticks);
+		if (replay != null) {
+			try {
+				replay.close();
+			} catch (IOException e) {
+				System.err.println("can't write the replay: " + e);
+			}
+		}
+		Robot r = world.getRobot(1), b = world.getRobot(2);
+		int redFuel = r.fuelLeft(), blueFuel = b.fuelLeft();
+		// reset cancels both, so which was cancelled for spinning is read first
+		boolean redCancelled = r.isCancelled(), blueCancelled = b.isCancelled();
+		world.reset();
+		// a robot cancelled for spinning has lost, as a dead one has
+		boolean redLost = r.isDead() || redCancelled, blueLost = b.isDead() || blueCancelled;
+
+		String winner;
+		if (redLost != blueLost) {
+			winner = redLost ? "blue" : "red";
+		} else if (redLost || redFuel == blueFuel) {
+			winner = "draw";
+		} else {
+			winner = (redFuel > blueFuel) ? "red" : "blue";
+		}
+		return winner + "," + played + "," + redFuel + "," + blueFuel;
+	}
+
+	public static void main(String[] args) throws InterruptedException, FileNotFoundException,
+			UnsupportedEncodingException {
+		int seeds = 1, ticks = 1000, threads = Runtime.getRuntime().availableProcessors();
+		boolean scaling = false;
+		File dir = new File("data"), csv = null, cache = null, replays = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-seeds") && i + 1 < args.length) {
+				seeds = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-ticks") && i + 1 < args.length) {
+				ticks = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-out") && i + 1 < args.length) {
+				csv = new File(args[++i]);
+			} else if (args[i].equals("-cache") && i + 1 < args.length) {
+				cache = new File(args[++i]);
+			} else if (args[i].equals("-replays") && i + 1 < args.length) {
+				replays = new File(args[++i]);
+			} else if (args[i].equals("-scaling")) {
+				scaling = true;
+			} else {
+				dir = new File(args[i]);
+			}
+		}
+		RoboGame.debugDisplay = false;
+		PrintStream out = (csv == null) ? System.out : new PrintStream(csv, "UTF-8");
+		// anything else printed, such as parse errors, goes to standard error
+		System.setOut(System.err);
+		Tournament tournament = new Tournament(dir, seeds, ticks);
+		if (replays != null) {
+			replays.mkdirs();
+			tournament.setReplays(replays);
+		}
+		System.err.println(tournament.programs.size() + " programs, " + tournament.size() + " matches");
+
+		if (scaling) {
+			PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+			// once to warm up
+			tournament.play(threads, quiet);
+			for (int n = 1; ; n = Math.min(2 * n, threads)) {
+				long nanos = tournament.play(n, quiet);
+				System.err.printf("%3d threads: %8.0f matches/s%n", n, tournament.size() / (nanos / 1e9));
+				if (n == threads) {
+					break;
+				}
+			}
+			return;
+		}
+
+		OutcomeCache outcomes = null;
+		if (cache != null) {
+			try {
+				outcomes = new OutcomeCache(cache);
+				tournament.setCache(outcomes);
+			} catch (IOException e) {
+				System.err.println("can't open the cache, playing every match: " + e);
+			}
+		}
+		long nanos = tournament.play(threads, out);
+		if (csv != null) {
+			out.close();
+		}
+		if (outcomes != null) {
+			try {
+				outcomes.close();
+			} catch (IOException e) {
+				System.err.println("can't close the cache: " + e);
+			}
+			System.err.println("cache: " + outcomes);
+		}
+		System.err.printf("%d matches on %d threads in %.1f s, %.0f matches/s%n", tournament.size(), threads,
+				nanos / 1e9, tournament.size() / (nanos / 1e9));
+	}
+}
@@ -0,0 +1,14 @@
+class TurnAroundNode implements RobotProgramNode {
+
+	@Override
+	public void execute(Robot robot) {
+		robot.turnAround();
+
+	}
+
+	@Override
+	public String toString() {
+		return "turnAround; ";
+
+	}
+}
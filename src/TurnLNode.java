@@ -0,0 +1,15 @@
+class TurnLNode implements RobotProgramNode {
+
+	@Override
+	public void execute(Robot robot) {
+		robot.turnLeft();
+
+	}
+
+	@Override
+	public String toString() {
+		return "turnL; ";
+
+	}
+
+}
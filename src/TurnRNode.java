@@ -0,0 +1,15 @@
+class TurnRNode implements RobotProgramNode {
+
+	@Override
+	public void execute(Robot robot) {
+		robot.turnRight();
+
+	}
+
+	@Override
+	public String toString() {
+		return "turnR; ";
+
+	}
+
+}
@@ -0,0 +1,21 @@
+class VARNode implements SensorNode {
+	final String name;
+	/** Where robots keep the variable, in the Variables of its program */
+	final int slot;
+
+	VARNode(String name, int slot) {
+		this.name = name;
+		this.slot = slot;
+	}
+
+	/** Variables that have never been assigned are 0 */
+	@Override
+	public int evaluate(Robot robot) {
+		return robot.getVariable(slot);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
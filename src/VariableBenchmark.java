@@ -0,0 +1,146 @@
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares keeping $variables in slots of an int[], as Robot does, with
+ * keeping them in a map from name to boxed value. Run as
+ *
+ * <pre>
+ * java VariableBenchmark [-seed n] [-size 64K] [-vars n] [-time ms]
+ * </pre>
+ *
+ * The assignments of a generated program with many variables are run over
+ * and over on a robot of each kind, and the time per assignment and per
+ * variable read or written is printed for both.
+ */
+class VariableBenchmark {
+
+	/** A robot keeping its variables the old way, by name in a HashMap */
+	private static class MapRobot extends Robot {
+		private final Map<String, Integer> variables = new HashMap<String, Integer>();
+		/** The name in each slot, as a VARNode would have held it */
+		private final String[] names;
+
+		MapRobot(World world, Variables slots) {
+			super(world, 0, 0, "red", true);
+			names = new String[slots.size()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = slots.name(i);
+			}
+		}
+
+		@Override
+		public int getVariable(int slot) {
+			Integer value = variables.get(names[slot]);
+			return (value == null) ? 0 : value;
+		}
+
+		@Override
+		public void setVariable(int slot, int value) {
+			variables.put(names[slot], value);
+		}
+	}
+
+	public static void main(String[] args) {
+		long seed = 1;
+		int size = 64 * 1024, vars = 32;
+		long millis = 2000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("-size")) {
+				size = (int) ProgramGenerator.parseSize(args[i + 1]);
+			} else if (args[i].equals("-vars")) {
+				vars = Integer.parseInt(args[i + 1]);
+			} else if (args[i].equals("-time")) {
+				millis = Long.parseLong(args[i + 1]);
+			}
+		}
+		RoboGame.debugDisplay = false;
+
+		String source = new ProgramGenerator(seed).variables(vars).generate(size);
+		RobotProgramNode program = IterativeParser.parseProgram(new Lexer(source.toCharArray()));
+
+		World world = new World();
+		world.availableFuel.add(new Point(3, 4));
+		world.availableFuel.add(new Point(8, 2));
+		Robot slots = new Robot(world, 0, 0, "red", true);
+		Robot map = new MapRobot(world, Variables.of(program));
+		slots.setProgram(program);
+		slots.updatePending();
+		map.updatePending();
+
+		// the assignments that can't fail, specialized as World runs them
+		List<RobotProgramNode> assignments = new ArrayList<RobotProgramNode>();
+		int accesses = 0;
+		Deque<Object> stack = new ArrayDeque<Object>();
+		stack.push(program);
+		while (!stack.isEmpty()) {
+			Object node = stack.pop();
+			if (node instanceof ASSGNNode) {
+				int n = variables(node);
+				if (n >= 0) {
+					assignments.add(Specializer.statement((ASSGNNode) node));
+					accesses += n;
+				}
+			}
+			for (Object child : ProgramTree.children(node)) {
+				stack.push(child);
+			}
+		}
+		RobotProgramNode[] run = assignments.toArray(new RobotProgramNode[assignments.size()]);
+		System.out.println(run.length + " assignments reading and writing " + accesses + " variables, " + vars
+				+ " different ones");
+
+		time(run, slots, millis / 2);
+		time(run, map, millis / 2);
+		double slotNanos = time(run, slots, millis);
+		double mapNanos = time(run, map, millis);
+		System.out.printf("%-6s %10.1f ns/assignment %8.2f ns/variable%n", "slots", slotNanos / run.length,
+				slotNanos / accesses);
+		System.out.printf("%-6s %10.1f ns/assignment %8.2f ns/variable%n", "map", mapNanos / run.length,
+				mapNanos / accesses);
+	}
+
+	/**
+	 * How many times the tree reads or writes a variable, or -1 if it divides
+	 * or reads a barrel by index, which can fail depending on the variables.
+	 */
+	private static int variables(Object root) {
+		int n = 0;
+		Deque<Object> stack = new ArrayDeque<Object>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			Object node = stack.pop();
+			if (node instanceof VARNode) {
+				n++;
+			} else if ((node instanceof OPNode && ((OPNode) node).operation.equals("div"))
+					|| (node instanceof BarrelLRNode && ((BarrelLRNode) node).index != null)
+					|| (node instanceof BarrelFBNode && ((BarrelFBNode) node).index != null)) {
+				return -1;
+			}
+			for (Object child : ProgramTree.children(node)) {
+				stack.push(child);
+			}
+		}
+		return n;
+	}
+
+	/** Nanoseconds per run of all the assignments, repeated for the time given */
+	private static double time(RobotProgramNode[] run, Robot robot, long millis) {
+		long end = System.nanoTime() + millis * 1000000;
+		long start = System.nanoTime(), passes = 0;
+		do {
+			for (RobotProgramNode assignment : run) {
+				assignment.execute(robot);
+			}
+			passes++;
+		} while (System.nanoTime() < end);
+		return (double) (System.nanoTime() - start) / passes;
+	}
+}
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The $variables of one program, each given a slot in the order the parser
+ * first meets it, so a robot running the program keeps their values in an
+ * int[] just big enough for it. The table is filled in while the program is
+ * parsed and only read once it runs, so programs parsed on different threads
+ * don't share anything and slots don't depend on what was parsed before.
+ */
+class Variables {
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+
+	/** The slot of the variable with the name, giving it the next if it has none */
+	int slot(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = names.size();
+			names.add(name);
+			slots.put(name, slot);
+		}
+		return slot;
+	}
+
+	/** The slot of the variable with the name, or -1 if it has none */
+	int find(String name) {
+		Integer slot = slots.get(name);
+		return (slot == null) ? -1 : slot;
+	}
+
+	/** The name of the variable in the slot */
+	String name(int slot) {
+		return names.get(slot);
+	}
+
+	/** How many slots a robot running the program needs */
+	int size() {
+		return names.size();
+	}
+
+	/** A table with the same slots, which can be added to without changing this one */
+	Variables copy() {
+		Variables copy = new Variables();
+		for (String name : names) {
+			copy.slot(name);
+		}
+		return copy;
+	}
+
+	/**
+	 * The variables of a program as parsed, optimized, specialized or
+	 * compiled, or an empty table if it is none of these.
+	 */
+	static Variables of(RobotProgramNode program) {
+		if (program instanceof PROGNode) {
+			return ((PROGNode) program).variables;
+		} else if (program instanceof Bytecode) {
+			return ((Bytecode) program).variables;
+		} else if (program instanceof Specializer.Program) {
+			return ((Specializer.Program) program).variables;
+		} else if (program instanceof ClassCompiler.CompiledProgram) {
+			return ((ClassCompiler.CompiledProgram) program).variables;
+		}
+		return new Variables();
+	}
+}
@@ -0,0 +1,23 @@
+class WHILENode implements RobotProgramNode {
+	final CONDNode Condition;
+	final BLOCKNode Block;
+
+	WHILENode(CONDNode Cond, RobotProgramNode Block) {
+		this.Condition = Cond;
+		this.Block = (BLOCKNode) Block;
+	}
+
+	@Override
+	public void execute(Robot robot) {
+		while (Condition.evaluate(robot)) {
+			Block.execute(robot);
+			robot.loop();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "while (" + Condition.toString() + ") " + "{\n\t" + Block.toString() + "\n} ";
+	}
+
+}
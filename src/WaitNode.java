@@ -0,0 +1,28 @@
+class WaitNode implements RobotProgramNode {
+	final EXPNode expr;
+
+	WaitNode() {
+		expr = null;
+	}
+
+	WaitNode(EXPNode expr) {
+		this.expr = expr;
+	}
+	
+	@Override
+	public void execute(Robot robot) {
+		int turns = (expr == null) ? 1 : expr.evaluate(robot);
+		for (int i = 0; i < turns; i++) {
+			robot.idleWait();
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (expr == null) {
+			return "wait; ";
+		}
+		return "wait(" + expr.toString() + "); ";
+	}
+
+}
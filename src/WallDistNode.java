@@ -0,0 +1,12 @@
+class WallDistNode implements SensorNode {
+
+	@Override
+	public int evaluate(Robot robot) {
+		return robot.getDistanceToWall();
+	}
+
+	@Override
+	public String toString() {
+		return "wallDist";
+	}
+}
@@ -10,19 +10,71 @@ import java.util.List;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class World {
 
 	public static final int SIZE = 12;
 
+	/** Parsed programs, shared by every world so a reset doesn't parse again */
+	static final ProgramCache PROGRAMS = new ProgramCache(ProgramCache.DEFAULT_SIZE);
+
+	/**
+	 * Whether loaded programs are compiled to JVM classes by ClassCompiler,
+	 * set with -Drobot.compiler=class; by default they are run as
+	 * Specializer's trees.
+	 */
+	private static final boolean COMPILE_CLASSES = "class".equals(System.getProperty("robot.compiler"));
+
 	protected Set<Point> availableFuel = Collections.newSetFromMap(new ConcurrentHashMap<Point, Boolean>());
-	private Random rand = new Random();
+	/** Set with -Dworld.seed=n, so the fuel turns up in the same places every game */
+	private static final Long SEED = Long.getLong("world.seed");
+	private Random rand = (SEED == null) ? new Random() : new Random(SEED);
+	/** Where fuel turns up instead, if not at random; set with -Dworld.fuel=file */
+	private FuelSchedule schedule = defaultSchedule();
+	private int tick;
 	protected Robot[] robots;
 
+	/**
+	 * Runs the robots' programs, by default each on a virtual thread where the
+	 * JVM has them and otherwise on a platform thread of its own. Set
+	 * -Drobot.threads=platform to always use platform threads.
+	 */
+	private static volatile Executor executor = defaultExecutor();
+	private final AtomicInteger running = new AtomicInteger();
+
 	public World() {
 		robots = new Robot[] { null, new Robot(this, 0, 0, "red", false), new Robot(this, SIZE - 1, SIZE - 1, "blue", false) };
 	}
 
+	/** A world whose fuel turns up where the seed says, the same every time */
+	public World(long seed) {
+		this();
+		rand = new Random(seed);
+		schedule = null;
+	}
+
+	/** A world whose fuel turns up where and when the schedule says */
+	World(FuelSchedule schedule) {
+		this();
+		this.schedule = schedule;
+	}
+
+	private static FuelSchedule defaultSchedule() {
+		String file = System.getProperty("world.fuel");
+		if (file == null) {
+			return null;
+		}
+		try {
+			return FuelSchedule.load(new File(file));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	/**
 	 * This world can no longer be used after this call.
 	 */
@@ -39,6 +91,7 @@ public class World {
 	}
 
 	public void updateWorld() {
+		tick++;
 		addFuel(false);
 		for (int i = 1; i <= 2; i++) {
 			robots[i].updatePending();
@@ -46,40 +99,99 @@ public class World {
 	}
 
 	public void loadRobotProgram(int id, File code) {
-		RobotProgramNode prog = Parser.parseFile(code);
+		RobotProgramNode prog = PROGRAMS.load(code);
 		if (prog != null) {
 			System.out.println("Robot " + id + " now has program: ");
 			System.out.println(prog);
-			robots[id].setProgram(prog);
+			robots[id].setProgram(PROGRAMS.runnable(prog));
+		}
+	}
+
+	/**
+	 * The parsed program as the robots run it, optimized and then specialized
+	 * or compiled. Programs loaded through PROGRAMS are made once, by its
+	 * runnable.
+	 */
+	static RobotProgramNode runnable(RobotProgramNode prog) {
+		if (prog == null) {
+			return null;
 		}
+		RobotProgramNode optimized = new Optimizer().optimize(prog);
+		return COMPILE_CLASSES ? ClassCompiler.compile(optimized) : Specializer.specialize(optimized);
 	}
 
 	public void start() {
-		// add some initial fuel
+		addInitialFuel();
+		for (int i = 1; i <= 2; i++) {
+			final Robot robot = robots[i];
+			running.incrementAndGet();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						try {
+							robot.run();
+						} catch (RobotInterruptedException e) {
+						}
+						robot.setFinished(true);
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+		}
+	}
+
+	/** How many times the world has been updated */
+	int getTick() {
+		return tick;
+	}
+
+	/** Puts out the fuel a game starts with, unless some has been already */
+	void addInitialFuel() {
 		if (availableFuel.isEmpty()) {
 			addFuel(true);
 			addFuel(true);
 		}
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					robots[1].run();
-				} catch (RobotInterruptedException e) {
-				}
-				robots[1].setFinished(true);
+	}
+
+	/**
+	 * Whether either robot's program is still running. After reset both stop
+	 * at their next action or sensor read.
+	 */
+	boolean isRunning() {
+		return running.get() > 0;
+	}
+
+	/** Sets what runs the robots' programs of worlds started from now on */
+	static void setExecutor(Executor executor) {
+		World.executor = executor;
+	}
+
+	static Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * A virtual thread per task where the JVM has them (looked up by
+	 * reflection, so this still builds on older JDKs), otherwise a platform
+	 * thread per task. Robots only block by parking, never inside
+	 * synchronized, so they don't pin a virtual thread's carrier.
+	 */
+	private static Executor defaultExecutor() {
+		if (!"platform".equals(System.getProperty("robot.threads"))) {
+			try {
+				return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				// no virtual threads before Java 21
 			}
-		}).start();
-		new Thread(new Runnable() {
+		}
+		return new Executor() {
 			@Override
-			public void run() {
-				try {
-					robots[2].run();
-				} catch (RobotInterruptedException e) {
-				}
-				robots[2].setFinished(true);
+			public void execute(Runnable task) {
+				new Thread(task).start();
 			}
-		}).start();
+		};
 	}
 
 	public Robot getRobot(int id) {
@@ -99,12 +211,30 @@ public class World {
 	}
 
 	private void addFuel(boolean definitely) {
+		if (schedule != null) {
+			// the initial fuel is all added by the first call
+			if (!definitely || availableFuel.isEmpty()) {
+				availableFuel.addAll(schedule.at(tick));
+			}
+			return;
+		}
+		Point fuel = randomFuel(rand, definitely);
+		if (fuel != null) {
+			availableFuel.add(fuel);
+		}
+	}
+
+	/**
+	 * Where to put fuel this tick, drawing from rand as the game always has,
+	 * or null for none; only a fifth of ticks have any unless definitely.
+	 */
+	static Point randomFuel(Random rand, boolean definitely) {
 		if (definitely || rand.nextDouble() < 0.2) {
 			int x = rand.nextInt(12);
 			int y = rand.nextInt(12);
-			Point fuel = new Point(x, y);
-			availableFuel.add(fuel);
+			return new Point(x, y);
 		}
+		return null;
 	}
 	
 	public static class RoboGamePrinter extends World {
@@ -126,7 +256,7 @@ public class World {
 			
 			// load the program.
 			RobotProgramNode prog = Parser.parseFile(new File(args[0]));
-			rgp.robots[1].setProgram(prog);
+			rgp.robots[1].setProgram(runnable(prog));
 			
 			// load fuel placement from file.
 			List<String> fuel = Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8);
@@ -137,8 +267,11 @@ public class World {
 				rgp.availableFuel.add(new Point(x, y));
 			}
 			
-			// run the robot.
-			rgp.robots[1].run();
+			// run the robot, until it ends or is cancelled for spinning.
+			try {
+				rgp.robots[1].run();
+			} catch (RobotInterruptedException e) {
+			}
 		}
 	}
 }